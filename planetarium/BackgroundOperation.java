@@ -0,0 +1,102 @@
+package planetarium;
+
+import planetarium.solarsystem.ProgressMonitor;
+import planetarium.solarsystem.error.OperationCancelledException;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+//Runs the long operations of the menu on a background thread, showing their progress on the console.
+//Pressing Enter on a terminal cancels the operation; Ctrl-C still ends the program, but only after the operation
+//stopped at one of its safe points, so the system (and its journal) is never left half modified.
+public class BackgroundOperation {
+	private static final long REFRESH_MILLIS = 200;
+
+	private static final ExecutorService executor = Executors.newSingleThreadExecutor(task -> {
+		Thread thread = new Thread(task, "planetarium-background");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	//An operation reporting its progress to the monitor and stopping when it is cancelled.
+	@FunctionalInterface
+	public interface Task<T> {
+		T run(ProgressMonitor monitor) throws OperationCancelledException;
+	}
+
+	//Runs the operation and waits for it, measuring its progress in the given unit.
+	//Returns the result of the operation, null if it was cancelled.
+	public static <T> T run(String unit, Task<T> task) {
+		ProgressMonitor monitor = new ProgressMonitor();
+		Future<T> future = executor.submit(() -> task.run(monitor));
+		Thread stopOnExit = new Thread(() -> {
+			monitor.cancel();
+			try {
+				future.get();
+			} catch (InterruptedException | ExecutionException ignored) {}
+		});
+		Runtime.getRuntime().addShutdownHook(stopOnExit);
+
+		System.out.println(Literals.PRESS_ENTER_TO_CANCEL);
+		Screen.flush();
+		try {
+			while (true) {
+				try {
+					T result = future.get(REFRESH_MILLIS, TimeUnit.MILLISECONDS);
+					printProgress(unit, monitor);
+					System.out.println();
+					return result;
+				} catch (TimeoutException stillRunning) {
+					//Without a terminal, the progress is printed only at the end and the input still queued
+					//belongs to the script, not to a user cancelling the operation.
+					if (Screen.isInteractive()) {
+						printProgress(unit, monitor);
+						if (enterPressed()) monitor.cancel();
+					}
+				}
+			}
+		} catch (ExecutionException e) {
+			System.out.println();
+			if (e.getCause() instanceof OperationCancelledException) {
+				System.out.println(Literals.OPERATION_CANCELLED);
+				return null;
+			}
+			if (e.getCause() instanceof RuntimeException runtime) throw runtime;
+			throw new IllegalStateException(e.getCause());
+		} catch (InterruptedException e) {
+			monitor.cancel();
+			Thread.currentThread().interrupt();
+			return null;
+		} finally {
+			try {
+				Runtime.getRuntime().removeShutdownHook(stopOnExit);
+			} catch (IllegalStateException shuttingDown) {}
+		}
+	}
+
+	//Rewrites the progress line: work done, rate and estimated time left.
+	private static void printProgress(String unit, ProgressMonitor monitor) {
+		long remaining = monitor.getRemainingSeconds();
+		String eta = (remaining < 0 ? "?" : String.format("%d:%02d", remaining / 60, remaining % 60));
+		System.out.printf(Literals.PROGRESS_FORMAT, unit, monitor.getDone(), monitor.getTotal(), monitor.getRate(), eta);
+		Screen.flush();
+	}
+
+	//Consumes what was typed meanwhile, true if it includes Enter.
+	private static boolean enterPressed() {
+		try {
+			boolean pressed = false;
+			while (System.in.available() > 0) {
+				if (System.in.read() == '\n') pressed = true;
+			}
+			return pressed;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+}
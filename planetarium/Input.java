@@ -19,6 +19,7 @@ public class Input {
 		byte choice;
 		do {
 			System.out.print(INPUT_NUMBER_DESIRED);
+			Screen.flush();
 			try {
 				choice = scanner.nextByte();
 				System.out.println("\n");
@@ -37,6 +38,7 @@ public class Input {
 		int input;
 		do {
 			System.out.print(message);
+			Screen.flush();
 			try {
 				input = scanner.nextInt();
 				return input;
@@ -53,6 +55,7 @@ public class Input {
 		long input;
 		do {
 			System.out.print(message);
+			Screen.flush();
 			try {
 				input = scanner.nextLong();
 				return input;
@@ -69,6 +72,7 @@ public class Input {
 		double input;
 		do {
 			System.out.print(message);
+			Screen.flush();
 			try {
 				input = scanner.nextDouble();
 				return input;
@@ -86,6 +90,7 @@ public class Input {
 		String input;
 		do {
 			System.out.print(message);
+			Screen.flush();
 			try {
 				input = scanner.next().replaceAll(" ", "");
 				return input;
@@ -35,7 +35,34 @@ public class Literals {
 	protected static final String INSERT_CELESTIAL_BODY_ID = "Inserire ID del corpo celeste: ";
 	protected static final String INSERT_FIRST_BODY_ID = "Inserire l'identificativo del primo corpo celeste: ";
 	protected static final String INSERT_SECOND_BODY_ID = "Inserire l'identificativo del secondo corpo celeste: ";
+	protected static final String INSERT_TRANSFER_RANGE = "Inserire la distanza massima di un trasferimento diretto tra due corpi (0 per seguire solo le orbite): ";
+	protected static final String NEGATIVE_TRANSFER_RANGE = "La distanza non puo' essere negativa, reinserirla: ";
 	protected static final String POSSIBLE_COLLISIONS = "ATTENZIONE!!! Possibili collisioni tra corpi celesti!";
+	protected static final String NEW_COLLISIONS = "ATTENZIONE!!! Il nuovo corpo celeste puo' collidere (%d possibili collisioni):\n";
 	protected static final String NO_COLLISIONS = "Tutto tranquillo. Nessuna collisione rilevata.";
+	protected static final String JOURNAL_ERROR = "Impossibile usare il journal: %s\nLe modifiche non verranno salvate.\n";
+	protected static final String SERVER_STARTED = "Server di interrogazione in ascolto su localhost:%d\n";
+	protected static final String SERVER_ERROR = "Impossibile avviare il server: %s\n";
+	protected static final String PRESS_ENTER_TO_CANCEL = "Premi Invio per annullare l'operazione.";
+	protected static final String PROGRESS_FORMAT = "\r%s: %,d/%,d (%,.0f al secondo, tempo rimanente %s)    ";
+	protected static final String OPERATION_CANCELLED = "Operazione annullata.";
+	protected static final String EXAMINED_PAIRS = "Coppie di corpi esaminate";
+	protected static final String GENERATED_BODIES = "Corpi celesti generati";
+	protected static final String COLLAPSED_PLANET_FORMAT = " |__ %s\t\t%s  (+%d lune)\n";
+	protected static final String PAGER_STATUS_FORMAT = "\nRighe %d-%d di %d\n";
+	protected static final String PAGER_COMMANDS = "[n] avanti  [p] indietro  [g] vai a  [c] comprimi/espandi  [/] cerca  [q] esci > ";
+	protected static final String PAGER_PLANET_TO_TOGGLE = "Inserire ID del pianeta (* per tutti): ";
+	protected static final String PAGER_SEARCH = "Testo da cercare negli ID: ";
+	protected static final String PAGER_NOT_FOUND = "Nessun corpo celeste trovato.";
+	protected static final String PAGER_NOT_A_PLANET = "Non hai inserito l'id di un pianeta.";
+	protected static final String SHARDS_STARTED = "Sistema distribuito su %d processi\n";
+	protected static final String SHARDS_ERROR = "Errore dei processi del sistema distribuito: %s\n";
+	protected static final String INVALID_SHARDS = "Numero di processi non valido: %s\nServe un numero intero maggiore di zero.\n";
+	protected static final String NUMBER_OF_SHARDED_PLANETS_PROMPT = "\nQuanti pianeti vuoi generare?\nInserisci una quantita': ";
+	protected static final String INSERT_MAP_DIRECTORY = "Inserire la cartella in cui salvare la mappa: ";
+	protected static final String INSERT_MAP_ZOOM = "Inserire il livello di zoom massimo [0-%d]: ";
+	protected static final String DRAWN_BODIES = "Corpi celesti disegnati";
+	protected static final String MAP_EXPORTED = "Mappa salvata in %s (%d tasselli)\n";
+	protected static final String MAP_ERROR = "Impossibile salvare la mappa: %s\n";
 	protected static final String ALL_PLANETS_CANCELLED = "Tutti i pianeti e lune sono stati cancellati!";
 }
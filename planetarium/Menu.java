@@ -11,16 +11,18 @@ public class Menu {
 			return "―――――――――――――――――――――――――――――――――――――――――――――――――――――――――――――――――――――――――――――――――――――――――――――――――";
 	}
 
-	// Title UNICODE Art
-	protected static void planetarium() {
-		System.out.println("\n"
+	// Title UNICODE Art, built once and printed with a single call
+	private static final String BANNER = "\n"
 				+ "\t██████╗░██╗░░░░░░█████╗░███╗░░██╗███████╗████████╗░█████╗░██████╗░██╗██╗░░░██╗███╗░░░███╗\n"
 				+ "\t██╔══██╗██║░░░░░██╔══██╗████╗░██║██╔════╝╚══██╔══╝██╔══██╗██╔══██╗██║██║░░░██║████╗░████║\n"
 				+ "\t██████╔╝██║░░░░░███████║██╔██╗██║█████╗░░░░░██║░░░███████║██████╔╝██║██║░░░██║██╔████╔██║\n"
 				+ "\t██╔═══╝░██║░░░░░██╔══██║██║╚████║██╔══╝░░░░░██║░░░██╔══██║██╔══██╗██║██║░░░██║██║╚██╔╝██║\n"
 				+ "\t██║░░░░░███████╗██║░░██║██║░╚███║███████╗░░░██║░░░██║░░██║██║░░██║██║╚██████╔╝██║░╚═╝░██║\n"
-				+ "\t╚═╝░░░░░╚══════╝╚═╝░░╚═╝╚═╝░░╚══╝╚══════╝░░░╚═╝░░░╚═╝░░╚═╝╚═╝░░╚═╝╚═╝░╚═════╝░╚═╝░░░░░╚═╝");
-		System.out.println("\nBenvenuto al gestionale degli Xylophaxians");
+				+ "\t╚═╝░░░░░╚══════╝╚═╝░░╚═╝╚═╝░░╚══╝╚══════╝░░░╚═╝░░░╚═╝░░╚═╝╚═╝░░╚═╝╚═╝░╚═════╝░╚═╝░░░░░╚═╝\n"
+				+ "\nBenvenuto al gestionale degli Xylophaxians";
+
+	protected static void planetarium() {
+		System.out.println(BANNER);
 	}
 
 	// All main menu options
@@ -34,7 +36,19 @@ public class Menu {
 		System.out.println("	6. Calcola rotta tra due corpi");
 		System.out.println("	7. Mostra possibili collisioni");
 		System.out.println("	8. Genera randomicamente Pianeti e lune (Test) [Attenzione: il sistema verrà pulito!]");
-		System.out.println("	9. Esci");
+		System.out.println("	9. Esporta la mappa del sistema in tasselli PNG");
+		System.out.println("	10. Mostra le statistiche del sistema");
+		System.out.println("	11. Esci");
+	}
+
+	// Options of a system partitioned across worker processes
+	protected static void printShardedMenu() {
+		System.out.println(getFrame());
+		System.out.println("	1. Genera randomicamente Pianeti e lune (Test) [Attenzione: il sistema verrà pulito!]");
+		System.out.println("	2. Ottieni informazioni del corpo celeste");
+		System.out.println("	3. Ottieni il centro di massa");
+		System.out.println("	4. Mostra possibili collisioni");
+		System.out.println("	5. Esci");
 	}
 
 	// Menu for adding celestial bodies in case there are no planets yet.
@@ -80,17 +94,13 @@ public class Menu {
 
 	// Try to clear console for better reading
 	protected static void clearConsole() {
-		try {
-			if (IS_WINDOWS)
-				new ProcessBuilder("cmd", "/c", "cls").inheritIO().start().waitFor();
-			else
-				new ProcessBuilder("bash", "-c", "clear").inheritIO().start().waitFor();
-		} catch (Exception ignored) {}
+		Screen.clear();
 	}
 
 	// Wait for the user to type enter
 	protected static void pressEnterToContinue() {
 		System.out.print("\n\nPremi Invio per continuare...");
+		Screen.flush();
 		try {
 			var ignored = System.in.read();
 		} catch (Exception e) {
@@ -2,14 +2,43 @@ package planetarium;
 
 import planetarium.solarsystem.*;
 import planetarium.solarsystem.error.CelestialBodyNotFoundException;
+import planetarium.solarsystem.error.OperationCancelledException;
+import planetarium.solarsystem.event.BulkInsertEvent;
 
+import javax.management.JMException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
 
 public class Planetarium {
+	//Usage: Planetarium [--journal <file>] [--server <port>] | --shards <processes>
 	public static void main(String[] args) {
-		SolarSystem system = introduction();
+		Screen.install();
+		String shards = getOption(args, "--shards");
+		if (shards != null) {
+			int processes;
+			try {
+				processes = Integer.parseInt(shards);
+			} catch (NumberFormatException e) {
+				processes = 0;
+			}
+			if (processes < 1)
+				System.out.printf(Literals.INVALID_SHARDS, shards);
+			else
+				ShardedPlanetarium.run(processes);
+			return;
+		}
+
+		String journalFile = getOption(args, "--journal");
+		SolarSystem system = (journalFile == null ? introduction() : openJournal(Path.of(journalFile)));
+
+		registerMetrics(system);
+
+		String serverPort = getOption(args, "--server");
+		if (serverPort != null) startServer(system, serverPort);
 
 		byte choice;
 		do {
@@ -26,7 +55,9 @@ public class Planetarium {
 				case 6 -> calculatePath(system);
 				case 7 -> showCollisions(system);
 				case 8 -> generateTest(system);
-				case 9 -> {
+				case 9 -> exportMap(system);
+				case 10 -> showStatistics(system);
+				case 11 -> {
 					return;
 				}
 				default -> System.out.println(Literals.INVALID_NUMBER);
@@ -35,6 +66,56 @@ public class Planetarium {
 		} while (true);
 	}
 	
+	//Gets the value following a command line option, null if the option is missing.
+	private static String getOption(String[] args, String option) {
+		for (int i = 0; i < args.length - 1; i++) {
+			if (args[i].equals(option)) return args[i + 1];
+		}
+		return null;
+	}
+
+	//Recovers the system saved in the journal (or asks for a new one) and journals every following change.
+	private static SolarSystem openJournal(Path path) {
+		SolarSystem system = null;
+		try {
+			system = Journal.recover(path);
+			if (system == null) system = introduction();
+
+			Journal journal = Journal.open(path, system);
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+				try {
+					journal.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}));
+		} catch (IOException e) {
+			System.out.printf(Literals.JOURNAL_ERROR, e.getMessage());
+			Menu.pressEnterToContinue();
+		}
+		return (system == null ? introduction() : system);
+	}
+
+	//Publishes the metrics of the system through JMX, they are measured only once enabled.
+	private static void registerMetrics(SolarSystem system) {
+		try {
+			system.getMetrics().registerMBean();
+		} catch (JMException e) {
+			e.printStackTrace();
+		}
+	}
+
+	//Starts the query server for other local processes, the console menu keeps working.
+	private static void startServer(SolarSystem system, String port) {
+		try {
+			QueryServer server = QueryServer.start(system, Integer.parseInt(port));
+			System.out.printf(Literals.SERVER_STARTED, server.getPort());
+		} catch (IOException | NumberFormatException e) {
+			System.out.printf(Literals.SERVER_ERROR, e.getMessage());
+		}
+		Menu.pressEnterToContinue();
+	}
+
 	//Read user input and checks the value is positive.
 	private static long readCelestialBodyMass(String message){
 		while(true){
@@ -111,7 +192,10 @@ public class Planetarium {
 		double x = Input.readDouble(Literals.INSERT_PLANET_X);
 		double y = Input.readDouble(Literals.INSERT_PLANET_Y);
 		long mass = readCelestialBodyMass(Literals.INSERT_PLANET_MASS);
-		star.addNewPlanet(x, y, mass);
+		CollisionIndex collisions = system.getCollisionIndex();
+		//At the maximum number of planets nothing is added, and the conflicts are the ones of a previous body.
+		if (star.addNewPlanet(x, y, mass))
+			warnNewCollisions(collisions);
 	}
 	//Gets values from user input and creates a new object Moon.
 	//If planet code is invalid, it will ask planet's ID again.
@@ -133,7 +217,19 @@ public class Planetarium {
 		double x = Input.readDouble(Literals.INSERT_MOON_X);
 		double y = Input.readDouble(Literals.INSERT_MOON_Y);
 		long mass = readCelestialBodyMass(Literals.INSERT_MOON_MASS);
-		planet.addNewMoon(x, y, mass);
+		CollisionIndex collisions = system.getCollisionIndex();
+		if (planet.addNewMoon(x, y, mass))
+			warnNewCollisions(collisions);
+	}
+	//Warns the user if the celestial body just added can collide with other bodies.
+	private static void warnNewCollisions(CollisionIndex collisions) {
+		var conflicts = collisions.getLastConflicts();
+		if (conflicts.isEmpty()) return;
+
+		System.out.printf(Literals.NEW_COLLISIONS, conflicts.size());
+		for (var conflict : conflicts)
+			System.out.println("  " + conflict);
+		Menu.pressEnterToContinue();
 	}
 
 
@@ -250,41 +346,9 @@ public class Planetarium {
 
 
 
-	//Main Switch Case 4: prints the list of all bodies in the SolarSystem.
+	//Main Switch Case 4: shows the tree of all bodies in the SolarSystem, one screen at a time.
 	private static void showListCelestialBodies(SolarSystem system) {
-		Menu.clearConsole();
-		printCelestialBodyTree(system);
-		Menu.pressEnterToContinue();
-	}
-	//Prints the structure of the entire solar system
-	private static void printCelestialBodyTree(SolarSystem system){
-		var star = system.getStar();
-		var planets = star.getPlanets();
-
-		printStar(star);
-
-		for(int i=0; i < planets.size() - 1; i++) {
-			var planet = planets.get(i);
-
-			printPlanetAndMoons(planet,false);
-			System.out.println(" |");
-		}
-
-		if (!planets.isEmpty()) printPlanetAndMoons(planets.get(planets.size()-1),true);
-	}
-	//Prints the star.
-	private static void printStar(Star star){
-		System.out.printf(Literals.STAR_FORMAT,star.getIdentifier(),star.toStringWithoutID());
-	}
-	//Prints planet and its moons based on the format given.
-	private static void printPlanetAndMoons(Planet planet,boolean isLastPlanet){
-		String planetFormat = (isLastPlanet ? Literals.LAST_PLANET_FORMAT : Literals.PLANET_FORMAT);
-		String moonFormat = (isLastPlanet ? Literals.LAST_PLANET_MOON_FORMAT : Literals.MOON_FORMAT);
-
-		System.out.printf(planetFormat,planet.getIdentifier(),planet.toStringWithoutID());
-		for(var moon : planet.getMoons()){
-			System.out.printf(moonFormat,moon.getIdentifier(),moon.toStringWithoutID());
-		}
+		TreePager.show(system);
 	}
 
 
@@ -312,8 +376,13 @@ public class Planetarium {
 			try {
 				String id1 = Input.readString(Literals.INSERT_FIRST_BODY_ID);
 				String id2 = Input.readString(Literals.INSERT_SECOND_BODY_ID);
+				double range = Input.readDouble(Literals.INSERT_TRANSFER_RANGE);
+				while (range < 0)
+					range = Input.readDouble(Literals.NEGATIVE_TRANSFER_RANGE);
 
-				return pathToString(system.findPath(id1, id2));
+				//With a range the route may also jump directly between nearby bodies.
+				if (range == 0) return pathToString(system.findPath(id1, id2));
+				return routeToString(system.findRoute(id1, id2, range));
 			} catch(CelestialBodyNotFoundException e) {
 				System.out.println(e.getMessage());
 			}
@@ -322,9 +391,15 @@ public class Planetarium {
 
 
 	//Main Switch Case 7: it prints if there could be collisions.
+	//The scan runs in background and can be cancelled.
 	private static void showCollisions(SolarSystem system) {
 		Menu.clearConsole();
-		if (system.detectCollisions())
+		Boolean collisions = BackgroundOperation.run(Literals.EXAMINED_PAIRS, system::detectCollisions);
+		if (collisions == null) {
+			Menu.pressEnterToContinue();
+			return;
+		}
+		if (collisions)
 			System.out.println(Literals.POSSIBLE_COLLISIONS);
 		else
 			System.out.println(Literals.NO_COLLISIONS);
@@ -350,10 +425,16 @@ public class Planetarium {
 		numOfMoons = getNumberOfBodiesToTest(Literals.NUMBER_OF_MOONS_PER_PLANET_TO_GENERATE_PROMPT
 				,Literals.GENERATE_MOON_ERROR_MESSAGE,Planet.MAX_NUMBER_OF_MOONS);
 
-		generateTestCelestialBodies(star,numOfPlanets);
-		for(var planet : star.getPlanets()){
-			generateTestCelestialBodies(planet,numOfMoons);
-		}
+		//Runs in background and can be cancelled between two bodies, keeping the ones already generated.
+		Long generated = BackgroundOperation.run(Literals.GENERATED_BODIES, monitor -> {
+			monitor.setTotal((long) numOfPlanets * (1 + numOfMoons));
+			generateTestCelestialBodies(star, numOfPlanets, monitor);
+			for(var planet : star.getPlanets()){
+				generateTestCelestialBodies(planet, numOfMoons, monitor);
+			}
+			return monitor.getDone();
+		});
+		if (generated == null) Menu.pressEnterToContinue();
 	}
 	//Gets how many of a type of celestial body to generate for the testing.
 	private static int getNumberOfBodiesToTest(String message, String errorMessage,long maxNumber){
@@ -368,19 +449,68 @@ public class Planetarium {
 			Menu.clearConsole();
 		}
 	}
-	//Generates the celestial bodies to test.
-	private static void generateTestCelestialBodies(CelestialBody parent, int numberOfBodiesToGenerate){
+	//Generates the celestial bodies to test, stopping if the monitor is cancelled.
+	private static void generateTestCelestialBodies(CelestialBody parent, int numberOfBodiesToGenerate,
+			ProgressMonitor monitor) throws OperationCancelledException {
 		Random random = new Random();
 
 		int maxVal = (parent instanceof Star ? 200000 : 10000);
 
-		for (int i=0; i<numberOfBodiesToGenerate; i++) {
-			double x = (random.nextBoolean() ? 1.0 : -1.0) * random.nextDouble()*maxVal;
-			double y = (random.nextBoolean() ? 1.0 : -1.0) * random.nextDouble()*maxVal;
-			long mass = Math.abs(random.nextLong()%maxVal + 1);
-			if(parent instanceof Star star) star.addNewPlanet(x, y, mass);
-			else if(parent instanceof Planet planet) planet.addNewMoon(x, y, mass);
+		BulkInsertEvent event = new BulkInsertEvent();
+		event.begin();
+		event.parent = parent.getIdentifier();
+		event.requested = numberOfBodiesToGenerate;
+		int satellitesBefore = countSatellites(parent);
+
+		try {
+			for (int i=0; i<numberOfBodiesToGenerate; i++) {
+				monitor.checkCancelled();
+				double x = (random.nextBoolean() ? 1.0 : -1.0) * random.nextDouble()*maxVal;
+				double y = (random.nextBoolean() ? 1.0 : -1.0) * random.nextDouble()*maxVal;
+				long mass = Math.abs(random.nextLong()%maxVal + 1);
+				if(parent instanceof Star star) star.addNewPlanet(x, y, mass);
+				else if(parent instanceof Planet planet) planet.addNewMoon(x, y, mass);
+				monitor.advance(1);
+			}
+		} finally {
+			event.inserted = countSatellites(parent) - satellitesBefore;
+			event.commit();
+		}
+	}
+	//Number of planets of a star or moons of a planet.
+	private static int countSatellites(CelestialBody parent) {
+		return (parent instanceof Star star ? star.getPlanets().size() : ((Planet) parent).getMoons().size());
+	}
+
+	//Main Switch Case 10: draws the system as PNG tiles, in background and cancellable.
+	private static void exportMap(SolarSystem system) {
+		Menu.clearConsole();
+		Path directory = Path.of(Input.readString(Literals.INSERT_MAP_DIRECTORY));
+		int maxZoom = Input.readInt(String.format(Literals.INSERT_MAP_ZOOM, TileMap.MAX_ZOOM));
+		while (maxZoom < 0 || maxZoom > TileMap.MAX_ZOOM)
+			maxZoom = Input.readInt(String.format(Literals.INSERT_MAP_ZOOM, TileMap.MAX_ZOOM));
+
+		int zoom = maxZoom;
+		try {
+			Long tiles = BackgroundOperation.run(Literals.DRAWN_BODIES, monitor -> {
+				try {
+					return system.exportMap(directory, zoom, monitor);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+			if (tiles != null) System.out.printf(Literals.MAP_EXPORTED, directory.toAbsolutePath(), tiles);
+		} catch (UncheckedIOException e) {
+			System.out.printf(Literals.MAP_ERROR, e.getCause().getMessage());
 		}
+		Menu.pressEnterToContinue();
+	}
+
+	//Main Switch Case 11: prints the distributions of mass, orbiting radius and moons per planet.
+	private static void showStatistics(SolarSystem system) {
+		Menu.clearConsole();
+		System.out.println(system.getStatistics().report());
+		Menu.pressEnterToContinue();
 	}
 
 	//Main switch case 9: deletes all planets and moons (identifiers are not reset)
@@ -408,6 +538,12 @@ public class Planetarium {
 		return sPath.toString();
 	}
 
+	private static String routeToString(TransferGraph.Route route) {
+		if (route.getIdentifiers().size() < 2) return "";
+
+		return String.format("\n%s \ndistanza totale : %.3f", String.join(" > ", route.getIdentifiers()), route.getDistance());
+	}
+
 	//Calculates the total distance of the path between two celestial bodies.
 	private static double totalDistanceOfPath(List<CelestialBody> path) {
 		long totalDistance = 0;
@@ -0,0 +1,166 @@
+package planetarium;
+
+import planetarium.solarsystem.*;
+import planetarium.solarsystem.error.CelestialBodyNotFoundException;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+//Embedded server that answers queries on the solar system with a line protocol, only on localhost.
+//Every request is a line, every answer a line starting with "OK" or "ERR":
+//  FIND <id>                    -> OK <celestial body>
+//  COM                          -> OK <x> <y>
+//  PATH <id> <id>               -> OK <id> > <id> > ...
+//  COLLISIONS                   -> OK true|false
+//  ADDPLANET <x> <y> <mass>     -> OK
+//  ADDMOON <planetId> <x> <y> <mass> -> OK
+//  METRICS                      -> OK <gauges> | <operation summary> | ...
+//  QUIT                         -> closes the connection
+//Clients can pipeline requests: answers are buffered and sent together when no more requests are waiting.
+public class QueryServer implements Closeable {
+	private static final int BACKLOG = 1024;
+
+	private final SolarSystem system;
+	private final ServerSocket serverSocket;
+	private final ExecutorService connections = newConnectionExecutor();
+
+	private QueryServer(SolarSystem system, int port) throws IOException {
+		this.system = system;
+		this.serverSocket = new ServerSocket(port, BACKLOG, InetAddress.getLoopbackAddress());
+	}
+
+	//Starts the server in background and returns it.
+	public static QueryServer start(SolarSystem system, int port) throws IOException {
+		QueryServer server = new QueryServer(system, port);
+		Thread acceptor = new Thread(server::acceptLoop, "planetarium-server");
+		acceptor.setDaemon(true);
+		acceptor.start();
+		return server;
+	}
+
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	//One virtual thread per connection when the runtime has them (Java 21+), otherwise a cached pool.
+	private static ExecutorService newConnectionExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newCachedThreadPool(task -> {
+				Thread thread = new Thread(task, "planetarium-connection");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+	}
+
+	private void acceptLoop() {
+		while (!serverSocket.isClosed()) {
+			try {
+				Socket socket = serverSocket.accept();
+				connections.execute(() -> serve(socket));
+			} catch (IOException e) {
+				if (!serverSocket.isClosed()) e.printStackTrace();
+			}
+		}
+	}
+
+	//Answers the requests of a connection until it is closed.
+	private void serve(Socket socket) {
+		try (socket;
+			 BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+			 BufferedWriter out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+			socket.setTcpNoDelay(true);
+
+			String request;
+			while ((request = in.readLine()) != null) {
+				if (request.trim().equalsIgnoreCase("QUIT")) break;
+
+				out.write(answer(request));
+				out.newLine();
+				//Flushes once per batch of pipelined requests.
+				if (!in.ready()) out.flush();
+			}
+			out.flush();
+		} catch (IOException ignored) {}
+	}
+
+	//Executes a single request and returns the answer line.
+	private String answer(String request) {
+		String[] words = request.trim().split("\\s+");
+		try {
+			return switch (words[0].toUpperCase()) {
+				case "FIND" -> {
+					requireArguments(words, 1);
+					yield "OK " + system.findCelestialBody(words[1]);
+				}
+				case "COM" -> {
+					Position centerOfMass = system.getCenterOfMass();
+					yield "OK " + centerOfMass.getX() + " " + centerOfMass.getY();
+				}
+				case "PATH" -> {
+					requireArguments(words, 2);
+					yield "OK " + pathToString(system.findPath(words[1], words[2]));
+				}
+				case "COLLISIONS" -> "OK " + system.detectCollisions();
+				case "METRICS" -> "OK " + system.getMetrics().dump().trim().replace(System.lineSeparator(), " | ");
+				case "ADDPLANET" -> {
+					requireArguments(words, 3);
+					if (!system.getStar().addNewPlanet(Double.parseDouble(words[1]), Double.parseDouble(words[2]),
+							parseMass(words[3])))
+						yield "ERR the star already has " + Star.MAX_NUMBER_OF_PLANETS + " planets";
+					yield "OK";
+				}
+				case "ADDMOON" -> {
+					requireArguments(words, 4);
+					//The locked lookup, other connections may be changing the planets meanwhile.
+					if (!(system.findCelestialBody(words[1]) instanceof Planet planet))
+						throw new CelestialBodyNotFoundException(words[1]);
+					//A planet removed meanwhile rejects the moon with an IllegalStateException.
+					if (!planet.addNewMoon(Double.parseDouble(words[2]), Double.parseDouble(words[3]), parseMass(words[4])))
+						yield "ERR the planet already has " + Planet.MAX_NUMBER_OF_MOONS + " moons";
+					yield "OK";
+				}
+				default -> "ERR unknown request " + words[0];
+			};
+		} catch (CelestialBodyNotFoundException | IllegalArgumentException e) {
+			return "ERR " + e.getMessage();
+		} catch (RuntimeException e) {
+			//Any other failure is answered too, so the connection and the pipelined answers survive it.
+			return "ERR " + e;
+		}
+	}
+
+	private static void requireArguments(String[] words, int count) {
+		if (words.length != count + 1)
+			throw new IllegalArgumentException(words[0] + " expects " + count + " arguments");
+	}
+
+	private static long parseMass(String word) {
+		long mass = Long.parseLong(word);
+		if (mass <= 0) throw new IllegalArgumentException("mass has to be positive");
+		return mass;
+	}
+
+	private static String pathToString(List<CelestialBody> path) {
+		StringBuilder sPath = new StringBuilder();
+		for (CelestialBody body : path) {
+			if (sPath.length() > 0) sPath.append(" > ");
+			sPath.append(body.getIdentifier());
+		}
+		return sPath.toString();
+	}
+
+	@Override
+	public void close() throws IOException {
+		serverSocket.close();
+		connections.shutdownNow();
+	}
+}
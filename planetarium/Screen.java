@@ -0,0 +1,59 @@
+package planetarium;
+
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+
+//Output of the console interface.
+//What is printed is buffered and reaches the terminal at once when the program waits for the user,
+//so a whole screen (a frame) costs a single write. On a terminal the screen is cleared with ANSI
+//sequences instead of running the clear command; when the output is not a terminal (a script or a file)
+//it is never cleared.
+public class Screen {
+	private static final boolean IS_WINDOWS = System.getProperty("os.name").contains("Windows");
+	private static final boolean INTERACTIVE = System.console() != null;
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	//Moves the cursor to the top left corner, then clears the screen.
+	private static final String ANSI_CLEAR = "\033[H\033[2J";
+
+	//Replaces System.out with a buffered stream, flushed by flush() and when the program ends.
+	protected static void install() {
+		String encoding = System.getProperty("sun.stdout.encoding", Charset.defaultCharset().name());
+		BufferedOutputStream buffer = new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), BUFFER_SIZE);
+		try {
+			System.setOut(new PrintStream(buffer, false, encoding));
+		} catch (UnsupportedEncodingException e) {
+			System.setOut(new PrintStream(buffer, false));
+		}
+		Runtime.getRuntime().addShutdownHook(new Thread(Screen::flush));
+	}
+
+	//Writes the current frame, to be called before waiting for the user.
+	protected static void flush() {
+		System.out.flush();
+	}
+
+	//True if the output is a terminal the user is looking at.
+	protected static boolean isInteractive() {
+		return INTERACTIVE;
+	}
+
+	//Clears the terminal, does nothing if the output is not a terminal.
+	protected static void clear() {
+		if (!INTERACTIVE) return;
+
+		//The Windows console may not understand ANSI sequences.
+		if (IS_WINDOWS) {
+			flush();
+			try {
+				new ProcessBuilder("cmd", "/c", "cls").inheritIO().start().waitFor();
+			} catch (Exception ignored) {}
+		} else {
+			System.out.print(ANSI_CLEAR);
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package planetarium;
+
+import planetarium.solarsystem.Planet;
+import planetarium.solarsystem.Position;
+import planetarium.solarsystem.ShardCoordinator;
+import planetarium.solarsystem.error.CelestialBodyNotFoundException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Random;
+
+//Menu of a solar system partitioned across worker processes, see ShardCoordinator.
+//It offers the operations that scale with the shards: generating bodies and the queries.
+public class ShardedPlanetarium {
+	//Starts the workers and runs the menu until the user exits, then stops them.
+	public static void run(int numberOfShards) {
+		Menu.clearConsole();
+		double x = Input.readDouble(Literals.INSERT_STAR_X);
+		double y = Input.readDouble(Literals.INSERT_STAR_Y);
+		long mass = Input.readLong(Literals.INSERT_STAR_MASS);
+
+		try (ShardCoordinator system = ShardCoordinator.launch(numberOfShards, new Position(x, y), Math.max(mass, 1))) {
+			byte choice;
+			do {
+				Menu.clearConsole();
+				System.out.printf(Literals.SHARDS_STARTED, system.getNumberOfShards());
+				Menu.printShardedMenu();
+				choice = Input.choice();
+				switch (choice) {
+					case 1 -> generateTest(system);
+					case 2 -> infoCelestialBody(system);
+					case 3 -> getCenterOfMass(system);
+					case 4 -> showCollisions(system);
+					case 5 -> {
+						return;
+					}
+					default -> System.out.println(Literals.INVALID_NUMBER);
+				}
+			} while (true);
+		} catch (IOException | UncheckedIOException e) {
+			System.out.printf(Literals.SHARDS_ERROR, e.getMessage());
+			Menu.pressEnterToContinue();
+		}
+	}
+
+	//Case 1: empties the system and generates planets and moons, spread across the shards.
+	private static void generateTest(ShardCoordinator system) throws IOException {
+		system.removeAllPlanets();
+		int numOfPlanets = Input.readInt(Literals.NUMBER_OF_SHARDED_PLANETS_PROMPT);
+		int numOfMoons = Math.min(Input.readInt(String.format(Literals.NUMBER_OF_MOONS_PER_PLANET_TO_GENERATE_PROMPT,
+				Planet.MAX_NUMBER_OF_MOONS)), Planet.MAX_NUMBER_OF_MOONS);
+
+		BackgroundOperation.run(Literals.GENERATED_BODIES, monitor -> {
+			monitor.setTotal((long) numOfPlanets * (1 + numOfMoons));
+			Random random = new Random();
+			try {
+				for (int i = 0; i < numOfPlanets; i++) {
+					monitor.checkCancelled();
+					String planet = system.addNewPlanet(randomCoordinate(random, 200000),
+							randomCoordinate(random, 200000), Math.abs(random.nextLong() % 200000 + 1));
+					for (int j = 0; j < numOfMoons; j++)
+						system.addNewMoon(planet, randomCoordinate(random, 10000), randomCoordinate(random, 10000),
+								Math.abs(random.nextLong() % 10000 + 1));
+					monitor.advance(1 + numOfMoons);
+				}
+				return system.getBodyCount();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			} catch (CelestialBodyNotFoundException e) {
+				throw new IllegalStateException(e);
+			}
+		});
+		Menu.pressEnterToContinue();
+	}
+
+	private static double randomCoordinate(Random random, int maxVal) {
+		return (random.nextBoolean() ? 1.0 : -1.0) * random.nextDouble() * maxVal;
+	}
+
+	//Case 2: finds a body in the shard that holds it.
+	private static void infoCelestialBody(ShardCoordinator system) throws IOException {
+		try {
+			var body = system.findCelestialBody(Input.readString(Literals.INSERT_CELESTIAL_BODY_ID));
+			System.out.printf("\n%s\n", body);
+		} catch (CelestialBodyNotFoundException e) {
+			System.out.printf("\n%s\n", e.getMessage());
+		}
+		Menu.pressEnterToContinue();
+	}
+
+	//Case 3: merges the partial sums of the shards.
+	private static void getCenterOfMass(ShardCoordinator system) throws IOException {
+		Position centerOfMass = system.getCenterOfMass();
+		System.out.printf(Literals.CENTER_OF_MASS_FORMAT, centerOfMass.getX(), centerOfMass.getY());
+		Menu.pressEnterToContinue();
+	}
+
+	//Case 4: merges the collisions and the annuli of the shards.
+	private static void showCollisions(ShardCoordinator system) throws IOException {
+		if (system.detectCollisions())
+			System.out.println(Literals.POSSIBLE_COLLISIONS);
+		else
+			System.out.println(Literals.NO_COLLISIONS);
+		Menu.pressEnterToContinue();
+	}
+}
@@ -0,0 +1,78 @@
+package planetarium;
+
+import planetarium.solarsystem.Moon;
+import planetarium.solarsystem.Planet;
+import planetarium.solarsystem.SolarSystem;
+import planetarium.solarsystem.SystemTreeView;
+
+//Interactive viewer of the tree of the system, printing one screen of rows at a time.
+//Only the rows on the screen are read and formatted, so a screen costs the same whatever the size of
+//the system.
+public class TreePager {
+	private static final int PAGE_ROWS = 20;
+
+	//Shows the tree until the user quits.
+	protected static void show(SolarSystem system) {
+		SystemTreeView view = new SystemTreeView(system);
+		long top = 0;
+		String message = "";
+		//"c *" alternates between collapsing and expanding every planet.
+		boolean collapseAll = true;
+
+		while (true) {
+			Menu.clearConsole();
+			long rowCount = view.getRowCount();
+			//Near the end the last screen stays full, the row asked for is still on it.
+			top = Math.max(Math.min(top, rowCount - PAGE_ROWS), 0);
+			for (SystemTreeView.Row row : view.getRows(top, PAGE_ROWS))
+				printRow(row);
+
+			System.out.printf(Literals.PAGER_STATUS_FORMAT, top + 1, Math.min(top + PAGE_ROWS, rowCount), rowCount);
+			System.out.println(message);
+			message = "";
+
+			switch (Input.readString(Literals.PAGER_COMMANDS)) {
+				case "n" -> top += PAGE_ROWS;
+				case "p" -> top = Math.max(top - PAGE_ROWS, 0);
+				case "g" -> {
+					long row = view.rowOf(Input.readString(Literals.INSERT_CELESTIAL_BODY_ID));
+					if (row < 0) message = Literals.PAGER_NOT_FOUND;
+					else top = row;
+				}
+				case "c" -> {
+					String id = Input.readString(Literals.PAGER_PLANET_TO_TOGGLE);
+					if (id.equals("*")) {
+						view.setAllCollapsed(collapseAll);
+						collapseAll = !collapseAll;
+					} else if (!view.toggle(id)) message = Literals.PAGER_NOT_A_PLANET;
+				}
+				case "/" -> {
+					long row = view.search(Input.readString(Literals.PAGER_SEARCH), top);
+					if (row < 0) message = Literals.PAGER_NOT_FOUND;
+					else top = row;
+				}
+				case "q" -> {
+					return;
+				}
+				default -> message = Literals.INVALID_NUMBER;
+			}
+		}
+	}
+
+	//Prints a row with the same formats of the whole tree.
+	private static void printRow(SystemTreeView.Row row) {
+		var body = row.getBody();
+		if (body instanceof Moon) {
+			String format = (row.isLastPlanet() ? Literals.LAST_PLANET_MOON_FORMAT : Literals.MOON_FORMAT);
+			System.out.printf(format, body.getIdentifier(), body.toStringWithoutID());
+		} else if (body instanceof Planet) {
+			if (row.isCollapsed() && row.getMoonCount() > 0)
+				System.out.printf(Literals.COLLAPSED_PLANET_FORMAT, body.getIdentifier(), body.toStringWithoutID(), row.getMoonCount());
+			else
+				System.out.printf(row.isLastPlanet() ? Literals.LAST_PLANET_FORMAT : Literals.PLANET_FORMAT,
+						body.getIdentifier(), body.toStringWithoutID());
+		} else {
+			System.out.printf(Literals.STAR_FORMAT, body.getIdentifier(), body.toStringWithoutID());
+		}
+	}
+}
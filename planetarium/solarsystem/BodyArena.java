@@ -0,0 +1,84 @@
+package planetarium.solarsystem;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Memory outside the Java heap where a solar system keeps the records of its moons.
+ * <p>
+ * Every planet stores its moons in a single buffer of the arena of its star, which it replaces with one
+ * twice as large when it is full. The arena is either {@link #DIRECT}, whose buffers are released by the
+ * garbage collector together with their planets, or backed by a file {@link #mapped(Path) mapped} in
+ * memory, so the records live in the page cache and the operating system can write them out.
+ * @see SolarSystem#SolarSystem(Position, long, BodyArena)
+ */
+public final class BodyArena implements Closeable {
+    /**
+     * Arena of direct buffers, shared by every system created without one.
+     * The memory counts against the limit set by -XX:MaxDirectMemorySize.
+     */
+    public static final BodyArena DIRECT = new BodyArena(null);
+
+    //Regions of a file arena are mapped this many bytes at a time.
+    private static final long SLAB_SIZE = 64L << 20;
+
+    //Null for the DIRECT arena.
+    private final FileChannel channel;
+    private ByteBuffer slab;
+    private long fileSize = 0;
+
+    private BodyArena(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Creates an arena backed by a file mapped in memory, the file is overwritten.
+     * <p>
+     * Buffers are carved one after the other from regions of the file and never reused, so the file keeps
+     * the old buffers of growing planets and the ones of removed planets until the arena is closed. It is
+     * working memory: a system is saved with {@link SolarSystem#storeTo(BodyStore)}.
+     * @param path The file of the arena.
+     * @return The new arena, to be closed when its systems are not used anymore.
+     * @throws IOException If the file cannot be created.
+     */
+    public static BodyArena mapped(Path path) throws IOException {
+        return new BodyArena(FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
+    }
+
+    //Returns a zeroed buffer of the given size in native byte order.
+    synchronized ByteBuffer allocate(int bytes) {
+        if(channel == null)
+            return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+
+        try {
+            if(slab == null || slab.remaining() < bytes) {
+                long size = Math.max(SLAB_SIZE, bytes);
+                slab = channel.map(FileChannel.MapMode.READ_WRITE, fileSize, size);
+                fileSize += size;
+            }
+            ByteBuffer buffer = slab.slice(slab.position(), bytes).order(ByteOrder.nativeOrder());
+            slab.position(slab.position() + bytes);
+            return buffer;
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Closes the file of a mapped arena, the DIRECT one cannot be closed.
+     * Its mapped regions stay valid until the systems using them are collected.
+     * @throws IOException If the file cannot be closed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if(channel != null)
+            channel.close();
+    }
+}
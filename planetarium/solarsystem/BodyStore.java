@@ -0,0 +1,245 @@
+package planetarium.solarsystem;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Storage of the bodies of a solar system outside the Java heap.
+ * <p>
+ * Every body is a fixed-size record (planet number, moon number, identifier counter, x, y, mass) in
+ * pages of off-heap memory: direct buffers, or pages of a file mapped in memory.
+ * The star comes first, then every planet followed by its moons. Coordinates are relative to the parent.
+ * The star record keeps the number of the star in place of the moon number, to restore its identifier.
+ * The garbage collector only sees one small object per page, whatever the number of bodies, and a file
+ * store can be mapped again later without reading it. The first page grows with the bodies up to its full
+ * size, so a small system takes little memory.
+ * @see SolarSystem#storeTo(BodyStore)
+ * @see SolarSystem#loadFrom(BodyStore)
+ */
+public final class BodyStore implements Closeable {
+    private static final int MAGIC = 0x50425354;
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_SIZE = 40;
+    private static final int PAGE_BITS = 20;
+    private static final int RECORDS_PER_PAGE = 1 << PAGE_BITS;
+    private static final long PAGE_SIZE = (long) RECORDS_PER_PAGE * RECORD_SIZE;
+    private static final int FIRST_PAGE_RECORDS = 1 << 10;
+
+    private static final int PLANET = 0;
+    private static final int MOON = 4;
+    private static final int COUNTER = 8;
+    private static final int X = 16;
+    private static final int Y = 24;
+    private static final int MASS = 32;
+
+    //Null when the store lives in anonymous memory.
+    private final FileChannel channel;
+    private final boolean writable;
+    private final List<ByteBuffer> pages = new ArrayList<>();
+    private long size;
+
+    private BodyStore(FileChannel channel, boolean writable, long size) {
+        this.channel = channel;
+        this.writable = writable;
+        this.size = size;
+    }
+
+    /**
+     * Creates an empty store in off-heap memory, released when the store is not referenced anymore.
+     * @return The new store.
+     */
+    public static BodyStore allocate() {
+        return new BodyStore(null, true, 0);
+    }
+
+    /**
+     * Creates an empty store backed by a file mapped in memory, the file is overwritten.
+     * @param path The file of the store.
+     * @return The new store, to be closed to complete the file.
+     * @throws IOException If the file cannot be created.
+     */
+    public static BodyStore create(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        return new BodyStore(channel, true, 0);
+    }
+
+    /**
+     * Maps a store previously written to a file, read-only.
+     * @param path The file of the store.
+     * @return The store, to be closed when not needed anymore.
+     * @throws IOException If the file cannot be read or is not a store.
+     */
+    public static BodyStore open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while(header.hasRemaining() && channel.read(header) >= 0);
+        header.flip();
+        if(header.remaining() < HEADER_SIZE || header.getInt() != MAGIC) {
+            channel.close();
+            throw new IOException(path + " is not a body store");
+        }
+        header.getInt();
+        long size = header.getLong();
+
+        BodyStore store = new BodyStore(channel, false, size);
+        for(long mapped = 0; mapped < size; mapped += RECORDS_PER_PAGE) {
+            long bytes = Math.min(size - mapped, RECORDS_PER_PAGE) * RECORD_SIZE;
+            store.pages.add(channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + mapped * RECORD_SIZE, bytes));
+        }
+        return store;
+    }
+
+    /**
+     * @return The number of bodies in the store.
+     */
+    public long size() { return size; }
+
+    //Appends a record, adding a page when the last one is full.
+    void append(int planet, int moon, int counter, double x, double y, long mass) throws IOException {
+        if(!writable)
+            throw new IllegalStateException("The store is read-only");
+        int offset = offset(size);
+        if(size == (long) pages.size() * RECORDS_PER_PAGE)
+            pages.add(newPage(pages.size(), pages.isEmpty() ? FIRST_PAGE_RECORDS : RECORDS_PER_PAGE));
+        else if(offset == pages.get(pages.size() - 1).capacity())
+            pages.set(pages.size() - 1, growPage(pages.size() - 1));
+
+        ByteBuffer page = pages.get(pages.size() - 1);
+        page.putInt(offset + PLANET, planet)
+                .putInt(offset + MOON, moon)
+                .putInt(offset + COUNTER, counter)
+                .putDouble(offset + X, x)
+                .putDouble(offset + Y, y)
+                .putLong(offset + MASS, mass);
+        size++;
+    }
+
+    private ByteBuffer newPage(int index, int records) throws IOException {
+        if(channel == null)
+            return ByteBuffer.allocateDirect(records * RECORD_SIZE);
+        return channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + index * PAGE_SIZE, (long) records * RECORD_SIZE);
+    }
+
+    //Replaces a full page that is smaller than PAGE_SIZE with one twice as large holding the same records.
+    private ByteBuffer growPage(int index) throws IOException {
+        ByteBuffer page = pages.get(index);
+        ByteBuffer larger = newPage(index, Math.min(RECORDS_PER_PAGE, 2 * page.capacity() / RECORD_SIZE));
+        //A file page maps the same region again, which already holds the records.
+        if(channel == null)
+            larger.put(0, page, 0, page.capacity());
+        return larger;
+    }
+
+    private ByteBuffer page(long index) {
+        if(index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Body " + index + " of " + size);
+        return pages.get((int) (index >>> PAGE_BITS));
+    }
+
+    private static int offset(long index) {
+        return (int) (index & (RECORDS_PER_PAGE - 1)) * RECORD_SIZE;
+    }
+
+    /**
+     * @param index The position of the body in the store.
+     * @return The number of the planet of the body, 0 for the star.
+     */
+    public int getPlanetNumber(long index) { return page(index).getInt(offset(index) + PLANET); }
+
+    /**
+     * @param index The position of the body in the store.
+     * @return The number of the moon, 0 for the planets, the number of the star for the star (0 if unknown).
+     */
+    public int getMoonNumber(long index) { return page(index).getInt(offset(index) + MOON); }
+
+    /**
+     * @param index The position of the body in the store.
+     * @return For the star the planets ever created, for a planet the moons ever created, 0 for a moon.
+     */
+    public int getCounter(long index) { return page(index).getInt(offset(index) + COUNTER); }
+
+    /**
+     * @param index The position of the body in the store.
+     * @return The offset along the x-axis relative to the parent.
+     */
+    public double getX(long index) { return page(index).getDouble(offset(index) + X); }
+
+    /**
+     * @param index The position of the body in the store.
+     * @return The offset along the y-axis relative to the parent.
+     */
+    public double getY(long index) { return page(index).getDouble(offset(index) + Y); }
+
+    /**
+     * @param index The position of the body in the store.
+     * @return The mass of the body.
+     */
+    public long getMass(long index) { return page(index).getLong(offset(index) + MASS); }
+
+    /**
+     * Calculates the center of mass of the stored system reading the records in place.
+     * @return The position of the center of mass, null if the store is empty.
+     */
+    public Position getCenterOfMass() {
+        if(size == 0)
+            return null;
+
+        double starX = getX(0);
+        double starY = getY(0);
+        long totalMass = getMass(0);
+        MassKernel.CompensatedSum weightedX = new MassKernel.CompensatedSum();
+        MassKernel.CompensatedSum weightedY = new MassKernel.CompensatedSum();
+        weightedX.add(starX * totalMass);
+        weightedY.add(starY * totalMass);
+
+        double planetX = starX;
+        double planetY = starY;
+        for(long i = 1; i < size; i++) {
+            double x = getX(i);
+            double y = getY(i);
+            long mass = getMass(i);
+            if(getMoonNumber(i) == 0) {
+                planetX = starX + x;
+                planetY = starY + y;
+                x = planetX;
+                y = planetY;
+            } else {
+                x += planetX;
+                y += planetY;
+            }
+            totalMass += mass;
+            weightedX.add(x * mass);
+            weightedY.add(y * mass);
+        }
+        return new Position(weightedX.value(), weightedY.value()).multiplyBy(1.0/totalMass);
+    }
+
+    /**
+     * Completes and releases a file store: the header is written and the file cut to the stored bodies.
+     * Stores in memory are released by the garbage collector.
+     * @throws IOException If the file cannot be written.
+     */
+    @Override
+    public void close() throws IOException {
+        if(channel == null)
+            return;
+        if(writable) {
+            for(ByteBuffer page : pages)
+                ((MappedByteBuffer) page).force();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(RECORD_SIZE).putLong(size).flip();
+            channel.write(header, 0);
+            channel.truncate(HEADER_SIZE + size * RECORD_SIZE);
+            channel.force(true);
+        }
+        pages.clear();
+        channel.close();
+    }
+}
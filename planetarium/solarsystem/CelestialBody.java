@@ -28,7 +28,7 @@ public abstract class CelestialBody {
     /**
      * The celestial body's mass.
      */
-    private final long mass;
+    private long mass;
 
     /**
      * Constructor for a generic celestial body.
@@ -71,6 +71,38 @@ public abstract class CelestialBody {
         return mass;
     }
 
+    /**
+     * Moves the celestial body.
+     * Its satellites move with it, since their positions are relative to it, so the cost does not
+     * depend on how many they are.
+     * @param x The new offset along the x-axis relative to the parent, or to the origin for a star.
+     * @param y The new offset along the y-axis relative to the parent, or to the origin for a star.
+     * @throws IllegalStateException If the body was removed from its system.
+     */
+    public void moveTo(double x, double y) {
+        update(new Position(x, y), getMass());
+    }
+
+    /**
+     * Changes the mass of the celestial body.
+     * @param mass The new mass.
+     * @throws IllegalStateException If the body was removed from its system.
+     */
+    public void setMass(long mass) {
+        update(new Position(position.getX(), position.getY()), mass);
+    }
+
+    //Changes position and mass, keeping up to date everything that depends on them.
+    //Implemented by every subclass, which knows the lock and the aggregates involved.
+    protected abstract void update(Position newPosition, long newMass);
+
+    //Assigns position and mass, the caller has to hold the write lock of the system.
+    protected void assign(Position newPosition, long newMass) {
+        position.setX(newPosition.getX());
+        position.setY(newPosition.getY());
+        mass = newMass;
+    }
+
     /**
      * Getter method for the identifier.
      * @return The celestial body's unique identifier.
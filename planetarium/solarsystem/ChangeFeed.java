@@ -0,0 +1,327 @@
+package planetarium.solarsystem;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Feed of the modifications of a solar system, published with {@link java.util.concurrent.Flow}.
+ * <p>
+ * The writers of the system only store every change in a ring buffer of {@link #CAPACITY} slots and wake
+ * up the subscribers, so they never wait for them. Every subscriber reads the ring from its own position
+ * on an executor, receiving the changes in batches of at most {@value #BATCH_SIZE} consecutive ones: a
+ * request of n items asks for n batches. Subscribers see the changes in the order they happened, starting
+ * from the first one after they subscribed. A subscriber that blocks in onNext holds a thread of the
+ * executor meanwhile, so slow subscribers should get a feed with an executor of their own.
+ * <p>
+ * A subscriber that falls behind by a whole ring would miss changes, so it receives
+ * {@link Flow.Subscriber#onError(Throwable)} with a {@link FeedOverflowException} instead, and can start
+ * over from a snapshot of the system taken after subscribing again.
+ * @see SolarSystem#getChangeFeed()
+ */
+public final class ChangeFeed implements SystemListener, Flow.Publisher<List<ChangeFeed.Change>>, Closeable {
+    /**
+     * Changes kept for the subscribers, a power of two.
+     * It can be configured with the system property planetarium.changeFeedCapacity, 65536 by default.
+     */
+    public static final int CAPACITY = Integer.highestOneBit(Math.max(2,
+            Integer.getInteger("planetarium.changeFeedCapacity", 1 << 16)));
+
+    /**
+     * Maximum number of changes delivered together.
+     */
+    public static final int BATCH_SIZE = 256;
+
+    /**
+     * Kind of a change.
+     */
+    public enum Type {
+        PLANET_ADDED, MOON_ADDED, PLANET_REMOVED, MOON_REMOVED, BODY_UPDATED, ALL_PLANETS_REMOVED
+    }
+
+    /**
+     * A modification of the system.
+     */
+    public static final class Change {
+        private final Type type;
+        private final long version;
+        private final String identifier;
+        private final double x;
+        private final double y;
+        private final long mass;
+
+        private Change(Type type, long version, String identifier, double x, double y, long mass) {
+            this.type = type;
+            this.version = version;
+            this.identifier = identifier;
+            this.x = x;
+            this.y = y;
+            this.mass = mass;
+        }
+
+        /**
+         * @return The kind of the change.
+         */
+        public Type getType() { return type; }
+
+        /**
+         * @return The version of the system after the change, changes made at once share it.
+         */
+        public long getVersion() { return version; }
+
+        /**
+         * @return The identifier of the body, the star's one when all planets are removed.
+         */
+        public String getIdentifier() { return identifier; }
+
+        /**
+         * @return The body's position relative to its parent: the new one if added or updated, the last one
+         * if removed.
+         */
+        public Position getRelativePosition() { return new Position(x, y); }
+
+        /**
+         * @return The body's mass: the new one if added or updated, the last one if removed.
+         */
+        public long getMass() { return mass; }
+
+        @Override
+        public String toString() {
+            return String.format("[ %s: %s\t\tmass: %d\t\tposition: ( %.3f , %.3f )\t\tversion: %d ]", type,
+                    identifier, mass, x, y, version);
+        }
+    }
+
+    /**
+     * Signalled to a subscriber that fell behind by more than {@link #CAPACITY} changes.
+     */
+    public static final class FeedOverflowException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private FeedOverflowException(long missed) {
+            super(String.format("Subscriber fell behind by %d changes, more than the %d kept", missed, CAPACITY));
+        }
+    }
+
+    private final Star star;
+    private final Executor executor;
+    private final Change[] ring = new Change[CAPACITY];
+    //Number of changes ever stored, the next one goes in the slot published % CAPACITY.
+    private volatile long published = 0;
+    private volatile boolean closed = false;
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    /**
+     * Creates a feed of a system, which has to be registered with {@link SolarSystem#addListener}.
+     * @param system The system.
+     * @param executor The executor delivering the changes to the subscribers.
+     */
+    public ChangeFeed(SolarSystem system, Executor executor) {
+        this.star = system.getStar();
+        this.executor = executor;
+    }
+
+    /**
+     * Creates a feed of a system delivering the changes on the common fork/join pool.
+     * @param system The system.
+     */
+    public ChangeFeed(SolarSystem system) {
+        this(system, ForkJoinPool.commonPool());
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super List<Change>> subscriber) {
+        Subscription subscription = new Subscription(subscriber, published);
+        subscriber.onSubscribe(subscription);
+        if(!subscription.cancelled)
+            subscriptions.add(subscription);
+        //Signals received meanwhile, including the closing of the feed, are delivered now.
+        subscription.resume();
+    }
+
+    /**
+     * @return The number of changes stored so far.
+     */
+    public long getPublished() {
+        return published;
+    }
+
+    //Stores a change and wakes up the subscribers.
+    //Writers hold the write lock of the system, so they store the changes one at a time.
+    private void publish(Type type, String identifier, Position position, long mass) {
+        if(closed)
+            return;
+        long sequence = published;
+        ring[(int) sequence & (CAPACITY - 1)] = new Change(type, star.getVersion(), identifier, position.getX(),
+                position.getY(), mass);
+        published = sequence + 1;
+        for(Subscription subscription : subscriptions)
+            subscription.signal();
+    }
+
+    @Override
+    public void planetAdded(Planet planet) {
+        publish(Type.PLANET_ADDED, planet.getIdentifier(), planet.getRelativePosition(), planet.getMass());
+    }
+
+    @Override
+    public void moonAdded(Moon moon) {
+        publish(Type.MOON_ADDED, moon.getIdentifier(), moon.getRelativePosition(), moon.getMass());
+    }
+
+    @Override
+    public void planetRemoved(Planet planet) {
+        publish(Type.PLANET_REMOVED, planet.getIdentifier(), planet.getRelativePosition(), planet.getMass());
+    }
+
+    @Override
+    public void moonRemoved(Moon moon) {
+        publish(Type.MOON_REMOVED, moon.getIdentifier(), moon.getRelativePosition(), moon.getMass());
+    }
+
+    @Override
+    public void bodyUpdated(CelestialBody body, Position oldPosition, long oldMass) {
+        Position position = (body instanceof Satellite satellite ? satellite.getRelativePosition()
+                : body.getAbsolutePosition());
+        publish(Type.BODY_UPDATED, body.getIdentifier(), position, body.getMass());
+    }
+
+    @Override
+    public void allPlanetsRemoved() {
+        publish(Type.ALL_PLANETS_REMOVED, star.getIdentifier(), star.getAbsolutePosition(), star.getMass());
+    }
+
+    /**
+     * Stops publishing and unregisters the feed from its system: the following changes are ignored and
+     * the subscribers complete after receiving the changes stored so far. Once the feed returned by
+     * {@link SolarSystem#getChangeFeed()} is closed, the next call returns a new one.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        star.removeListener(this);
+        for(Subscription subscription : subscriptions)
+            subscription.signal();
+    }
+
+    //True once the feed was closed.
+    boolean isClosed() {
+        return closed;
+    }
+
+    //Position of a subscriber in the ring and its demand, drained by at most one task at a time.
+    private final class Subscription implements Flow.Subscription, Runnable {
+        private final Flow.Subscriber<? super List<Change>> subscriber;
+        //Next change to deliver, used only by the draining task.
+        private long cursor;
+        private final AtomicLong requested = new AtomicLong();
+        //Signals not yet handled by the draining task, a task is scheduled when it leaves 0.
+        //It starts at 1, so nothing is delivered before onSubscribe returns.
+        private final AtomicInteger pendingSignals = new AtomicInteger(1);
+        private volatile boolean cancelled = false;
+        //Error of an invalid request, signalled by the draining task so that signals stay serial.
+        private volatile Throwable requestError;
+
+        private Subscription(Flow.Subscriber<? super List<Change>> subscriber, long cursor) {
+            this.subscriber = subscriber;
+            this.cursor = cursor;
+        }
+
+        @Override
+        public void request(long n) {
+            if(n <= 0) {
+                requestError = new IllegalArgumentException("Requested a non-positive number of batches: " + n);
+                signal();
+                return;
+            }
+            requested.accumulateAndGet(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+            signal();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            subscriptions.remove(this);
+        }
+
+        //Schedules the draining task unless it is already scheduled or running.
+        private void signal() {
+            if(pendingSignals.getAndIncrement() == 0)
+                executor.execute(this);
+        }
+
+        //Releases the initial signal taken before onSubscribe, scheduling the task if others arrived.
+        private void resume() {
+            if(pendingSignals.decrementAndGet() != 0)
+                executor.execute(this);
+        }
+
+        @Override
+        public void run() {
+            int handled = pendingSignals.get();
+            do {
+                drain();
+                handled = pendingSignals.addAndGet(-handled);
+            } while(handled != 0);
+        }
+
+        //Delivers batches while the subscriber asks for them and there are changes to deliver.
+        private void drain() {
+            while(!cancelled) {
+                Throwable error = requestError;
+                if(error != null) {
+                    fail(error);
+                    return;
+                }
+                long available = published - cursor;
+                if(available == 0) {
+                    if(closed) {
+                        cancel();
+                        subscriber.onComplete();
+                    }
+                    return;
+                }
+                if(available >= CAPACITY) {
+                    fail(new FeedOverflowException(available));
+                    return;
+                }
+                long demand = requested.get();
+                if(demand == 0)
+                    return;
+
+                int size = (int) Math.min(available, BATCH_SIZE);
+                Change[] batch = new Change[size];
+                for(int i = 0; i < size; i++)
+                    batch[i] = ring[(int) (cursor + i) & (CAPACITY - 1)];
+                //A writer may have reused the oldest slots while they were copied.
+                long overrun = published - cursor;
+                if(overrun >= CAPACITY) {
+                    fail(new FeedOverflowException(overrun));
+                    return;
+                }
+
+                cursor += size;
+                if(demand != Long.MAX_VALUE)
+                    requested.decrementAndGet();
+                try {
+                    subscriber.onNext(Collections.unmodifiableList(Arrays.asList(batch)));
+                } catch(RuntimeException e) {
+                    fail(e);
+                    return;
+                }
+            }
+        }
+
+        private void fail(Throwable error) {
+            cancel();
+            subscriber.onError(error);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package planetarium.solarsystem;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+
+/**
+ * List stored in fixed-size pages, used for the planets of a star.
+ * <p>
+ * Growing the list only adds a page, so the elements are never copied into a larger array as in an
+ * {@link ArrayList}; only the directory of the pages grows, which is {@value #PAGE_SIZE} times smaller.
+ * Removing an element shifts the following ones like in an ArrayList, while {@link #removeIf(Predicate)}
+ * compacts the whole list in a single pass.
+ * @param <E> The type of the elements.
+ */
+class ChunkedList<E> extends AbstractList<E> implements RandomAccess {
+    private static final int PAGE_BITS = 10;
+    /**
+     * Number of elements of a page.
+     */
+    static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    //Lists at least this long evaluate the filter of removeIf in parallel.
+    private static final int PARALLEL_THRESHOLD = 1 << 14;
+
+    private final List<Object[]> pages = new ArrayList<>();
+    private int size = 0;
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E get(int index) {
+        checkIndex(index, size);
+        return (E) pages.get(index >>> PAGE_BITS)[index & PAGE_MASK];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E set(int index, E element) {
+        checkIndex(index, size);
+        Object[] page = pages.get(index >>> PAGE_BITS);
+        E previous = (E) page[index & PAGE_MASK];
+        page[index & PAGE_MASK] = element;
+        return previous;
+    }
+
+    @Override
+    public boolean add(E element) {
+        if(size == pages.size() * PAGE_SIZE)
+            pages.add(new Object[PAGE_SIZE]);
+        pages.get(size >>> PAGE_BITS)[size & PAGE_MASK] = element;
+        size++;
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public void add(int index, E element) {
+        checkIndex(index, size + 1);
+        add(element);
+        shiftRight(index);
+        pages.get(index >>> PAGE_BITS)[index & PAGE_MASK] = element;
+    }
+
+    @Override
+    public E remove(int index) {
+        E removed = get(index);
+        shiftLeft(index, 1);
+        truncate(size - 1);
+        modCount++;
+        return removed;
+    }
+
+    @Override
+    public boolean removeIf(Predicate<? super E> filter) {
+        return removeIf(filter, removed -> {}) > 0;
+    }
+
+    //Removes the elements matching the filter, passing them in order to the consumer, and returns how many
+    //they are. The filter is evaluated first, in parallel on long lists, then the kept elements are moved
+    //back in a single pass.
+    int removeIf(Predicate<? super E> filter, Consumer<? super E> onRemoved) {
+        boolean[] matching = new boolean[size];
+        IntStream indexes = IntStream.range(0, size);
+        (size >= PARALLEL_THRESHOLD ? indexes.parallel() : indexes).forEach(i -> matching[i] = filter.test(get(i)));
+
+        int kept = 0;
+        for(int i = 0; i < size; i++) {
+            E element = get(i);
+            if(matching[i]) {
+                onRemoved.accept(element);
+            } else {
+                if(kept != i)
+                    pages.get(kept >>> PAGE_BITS)[kept & PAGE_MASK] = element;
+                kept++;
+            }
+        }
+        int removed = size - kept;
+        if(removed > 0) {
+            truncate(kept);
+            modCount++;
+        }
+        return removed;
+    }
+
+    @Override
+    public void clear() {
+        pages.clear();
+        size = 0;
+        modCount++;
+    }
+
+    //Moves every element from index + distance onward back by distance positions, one page copy at a time.
+    private void shiftLeft(int index, int distance) {
+        int to = index;
+        int from = index + distance;
+        while(from < size) {
+            int length = Math.min(Math.min(PAGE_SIZE - (from & PAGE_MASK), PAGE_SIZE - (to & PAGE_MASK)), size - from);
+            System.arraycopy(pages.get(from >>> PAGE_BITS), from & PAGE_MASK,
+                    pages.get(to >>> PAGE_BITS), to & PAGE_MASK, length);
+            from += length;
+            to += length;
+        }
+    }
+
+    //Moves every element from index to the one before the last forward by one position, one page copy at
+    //a time from the end, overwriting the last element.
+    private void shiftRight(int index) {
+        int to = size;
+        int from = size - 1;
+        while(from > index) {
+            int length = Math.min(Math.min((from - 1 & PAGE_MASK) + 1, (to - 1 & PAGE_MASK) + 1), from - index);
+            from -= length;
+            to -= length;
+            System.arraycopy(pages.get(from >>> PAGE_BITS), from & PAGE_MASK,
+                    pages.get(to >>> PAGE_BITS), to & PAGE_MASK, length);
+        }
+    }
+
+    //Drops the elements from the new size onward, releasing the empty pages.
+    private void truncate(int newSize) {
+        for(int i = newSize; i < size && (i & PAGE_MASK) != 0; i++)
+            pages.get(i >>> PAGE_BITS)[i & PAGE_MASK] = null;
+        int usedPages = (newSize + PAGE_MASK) >>> PAGE_BITS;
+        while(pages.size() > usedPages)
+            pages.remove(pages.size() - 1);
+        size = newSize;
+    }
+
+    private static void checkIndex(int index, int length) {
+        if(index < 0 || index >= length)
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + length);
+    }
+}
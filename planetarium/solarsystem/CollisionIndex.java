@@ -0,0 +1,389 @@
+package planetarium.solarsystem;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Possible collisions of a solar system, kept up to date with every modification.
+ * <p>
+ * Every planet sweeps an annulus around the star: from its orbiting radius minus the orbiting radius of
+ * its farthest moon, to its orbiting radius plus the same amount. Two planets can collide, directly or
+ * through their moons, only if their annuli overlap, so the annuli are kept in an interval tree and
+ * every modification queries only the annuli it touches. The moons of every planet are kept sorted by
+ * orbiting radius, to find moons sharing an orbit and moons reaching the star.
+ * Each modification costs O(log N) plus the conflicts it reports.
+ * <p>
+ * The conflicts are counted as pairs of distinct bodies: planets with overlapping annuli, moons of the
+ * same planet with the same orbiting radius, and moons whose orbit reaches the star.
+ * @see SolarSystem#getCollisionIndex()
+ */
+public final class CollisionIndex implements SystemListener {
+    /**
+     * A possible collision between two celestial bodies.
+     */
+    public static final class Conflict {
+        private final CelestialBody first;
+        private final CelestialBody second;
+
+        private Conflict(CelestialBody first, CelestialBody second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        /**
+         * @return The body that caused the conflict.
+         */
+        public CelestialBody getFirst() { return first; }
+
+        /**
+         * @return The body it can collide with: a moon, a planet (or its moons) or the star.
+         */
+        public CelestialBody getSecond() { return second; }
+
+        @Override
+        public String toString() {
+            return first.getIdentifier() + " <-> " + second.getIdentifier();
+        }
+    }
+
+    //State of a planet: its annulus in the tree and its moons by orbiting radius.
+    private static final class PlanetState {
+        private final Planet planet;
+        private double radius;
+        private final TreeMap<Double, List<Moon>> moonsByRadius = new TreeMap<>();
+        private IntervalTree.Node annulus;
+        //Reach used for the annulus currently in the tree.
+        private double annulusReach;
+
+        private PlanetState(Planet planet) {
+            this.planet = planet;
+            this.radius = planet.distanceToParent();
+        }
+
+        private double reach() {
+            return moonsByRadius.isEmpty() ? 0 : moonsByRadius.lastKey();
+        }
+    }
+
+    private final Map<Planet, PlanetState> planets = new IdentityHashMap<>();
+    private final IntervalTree annuli = new IntervalTree();
+
+    private long overlappingAnnuli = 0;
+    private long moonsSharingOrbits = 0;
+    private long moonsReachingStar = 0;
+    private List<Conflict> lastConflicts = Collections.emptyList();
+
+    //Indexes the bodies already in the system, the caller has to hold the lock of the star.
+    CollisionIndex(Star star) {
+        for(Planet planet : star.getPlanets()) {
+            planetAdded(planet);
+            for(Moon moon : planet.getMoons())
+                moonAdded(moon);
+        }
+        lastConflicts = Collections.emptyList();
+    }
+
+    /**
+     * @return The number of possible collisions currently in the system.
+     */
+    public synchronized long getConflictCount() {
+        return overlappingAnnuli + moonsSharingOrbits + moonsReachingStar;
+    }
+
+    /**
+     * @return The conflicts introduced by the last planet or moon added to the system, or moved.
+     */
+    public synchronized List<Conflict> getLastConflicts() {
+        return lastConflicts;
+    }
+
+    @Override
+    public synchronized void planetAdded(Planet planet) {
+        PlanetState state = new PlanetState(planet);
+        planets.put(planet, state);
+        List<Conflict> conflicts = new ArrayList<>();
+        insertAnnulus(state, conflicts, Collections.emptySet());
+        lastConflicts = conflicts;
+    }
+
+    @Override
+    public synchronized void moonAdded(Moon moon) {
+        PlanetState state = planets.get((Planet) moon.getParent());
+        if(state == null)
+            return;
+        List<Conflict> conflicts = new ArrayList<>();
+        insertMoon(state, moon, conflicts);
+        //A farther moon widens the annulus of the planet.
+        refreshAnnulus(state, conflicts);
+        lastConflicts = conflicts;
+    }
+
+    @Override
+    public synchronized void moonRemoved(Moon moon) {
+        PlanetState state = planets.get((Planet) moon.getParent());
+        if(state == null)
+            return;
+        removeMoon(state, moon, moon.distanceToParent());
+        refreshAnnulus(state, null);
+    }
+
+    @Override
+    public synchronized void moonsRemoved(Planet planet, List<Moon> moons) {
+        PlanetState state = planets.get(planet);
+        if(state == null)
+            return;
+        for(Moon moon : moons)
+            removeMoon(state, moon, moon.distanceToParent());
+        refreshAnnulus(state, null);
+    }
+
+    @Override
+    public synchronized void planetRemoved(Planet planet) {
+        PlanetState state = planets.remove(planet);
+        if(state == null)
+            return;
+        for(Moon moon : planet.getMoons())
+            removeMoon(state, moon, moon.distanceToParent());
+        removeAnnulus(state);
+    }
+
+    @Override
+    public synchronized void bodyUpdated(CelestialBody body, Position oldPosition, long oldMass) {
+        //Masses do not matter, and moving the star moves the whole system with it.
+        if(body instanceof Moon moon) {
+            PlanetState state = planets.get((Planet) moon.getParent());
+            if(state == null)
+                return;
+            List<Conflict> conflicts = new ArrayList<>();
+            removeMoon(state, moon, Satellite.radiusOf(oldPosition));
+            insertMoon(state, moon, conflicts);
+            refreshAnnulus(state, conflicts);
+            lastConflicts = conflicts;
+        } else if(body instanceof Planet planet) {
+            PlanetState state = planets.get(planet);
+            if(state == null || state.radius == planet.distanceToParent())
+                return;
+            List<Conflict> conflicts = new ArrayList<>();
+            double oldRadius = state.radius;
+            moonsReachingStar -= countReaching(state);
+            state.radius = planet.distanceToParent();
+            moonsReachingStar += countReaching(state);
+            //Moving closer to the star, the moons between the two radii start reaching it.
+            if(state.radius < oldRadius) {
+                for(List<Moon> sameOrbit : state.moonsByRadius.subMap(state.radius, true, oldRadius, false).values()) {
+                    for(Moon moon : sameOrbit)
+                        conflicts.add(new Conflict(moon, planet.getParent()));
+                }
+            }
+            Set<Planet> before = removeAnnulus(state);
+            insertAnnulus(state, conflicts, before);
+            lastConflicts = conflicts;
+        }
+    }
+
+    //Number of moons of a planet whose orbit reaches the star.
+    private static long countReaching(PlanetState state) {
+        long count = 0;
+        for(List<Moon> sameOrbit : state.moonsByRadius.tailMap(state.radius, true).values())
+            count += sameOrbit.size();
+        return count;
+    }
+
+    //Indexes a moon of a planet, without updating the annulus.
+    private void insertMoon(PlanetState state, Moon moon, List<Conflict> conflicts) {
+        double radius = moon.distanceToParent();
+
+        List<Moon> sameOrbit = state.moonsByRadius.computeIfAbsent(radius, ignored -> new ArrayList<>());
+        for(Moon other : sameOrbit)
+            conflicts.add(new Conflict(moon, other));
+        moonsSharingOrbits += sameOrbit.size();
+        sameOrbit.add(moon);
+
+        if(state.radius <= radius) {
+            moonsReachingStar++;
+            conflicts.add(new Conflict(moon, state.planet.getParent()));
+        }
+    }
+
+    @Override
+    public synchronized void allPlanetsRemoved() {
+        planets.clear();
+        annuli.clear();
+        overlappingAnnuli = 0;
+        moonsSharingOrbits = 0;
+        moonsReachingStar = 0;
+        lastConflicts = Collections.emptyList();
+    }
+
+    //Forgets a moon of a planet given the radius it was indexed with, without updating the annulus.
+    private void removeMoon(PlanetState state, Moon moon, double radius) {
+        List<Moon> sameOrbit = state.moonsByRadius.get(radius);
+        if(sameOrbit == null || !sameOrbit.remove(moon))
+            return;
+        moonsSharingOrbits -= sameOrbit.size();
+        if(sameOrbit.isEmpty())
+            state.moonsByRadius.remove(radius);
+        if(state.radius <= radius)
+            moonsReachingStar--;
+    }
+
+    //Moves the annulus of a planet if the reach of its moons changed, reporting the new overlaps.
+    private void refreshAnnulus(PlanetState state, List<Conflict> conflicts) {
+        if(state.reach() != state.annulusReach) {
+            Set<Planet> before = removeAnnulus(state);
+            insertAnnulus(state, conflicts, before);
+        }
+    }
+
+    //Removes the annulus of a planet and returns the planets it overlapped.
+    private Set<Planet> removeAnnulus(PlanetState state) {
+        annuli.delete(state.annulus);
+        List<IntervalTree.Node> overlapping = annuli.overlapping(state.annulus.low, state.annulus.high);
+        overlappingAnnuli -= overlapping.size();
+
+        Set<Planet> overlapped = Collections.newSetFromMap(new IdentityHashMap<>());
+        for(IntervalTree.Node node : overlapping)
+            overlapped.add(node.planet);
+        return overlapped;
+    }
+
+    //Inserts the annulus of a planet, reporting the overlaps with planets not in the given set.
+    private void insertAnnulus(PlanetState state, List<Conflict> conflicts, Set<Planet> alreadyOverlapped) {
+        double reach = state.reach();
+        List<IntervalTree.Node> overlapping = annuli.overlapping(state.radius - reach, state.radius + reach);
+        overlappingAnnuli += overlapping.size();
+        if(conflicts != null) {
+            for(IntervalTree.Node node : overlapping) {
+                if(!alreadyOverlapped.contains(node.planet))
+                    conflicts.add(new Conflict(state.planet, node.planet));
+            }
+        }
+        state.annulus = annuli.insert(state.radius - reach, state.radius + reach, state.planet);
+        state.annulusReach = reach;
+    }
+
+    /**
+     * Treap of closed intervals ordered by lower bound, each node knowing the greatest upper bound of its
+     * subtree, so the intervals overlapping a query are found in O(log n) plus the ones reported.
+     */
+    private static final class IntervalTree {
+        private static final class Node {
+            private final double low;
+            private final double high;
+            private final Planet planet;
+            private final long order;
+            private final int priority;
+            private double maxHigh;
+            private Node left;
+            private Node right;
+
+            private Node(double low, double high, Planet planet, long order, int priority) {
+                this.low = low;
+                this.high = high;
+                this.planet = planet;
+                this.order = order;
+                this.priority = priority;
+                this.maxHigh = high;
+            }
+
+            private boolean before(Node other) {
+                return low < other.low || (low == other.low && order < other.order);
+            }
+        }
+
+        private final Random random = new Random();
+        private Node root;
+        private long insertions = 0;
+
+        private Node insert(double low, double high, Planet planet) {
+            Node node = new Node(low, high, planet, insertions++, random.nextInt());
+            Node[] parts = split(root, node);
+            root = merge(merge(parts[0], node), parts[1]);
+            return node;
+        }
+
+        private void delete(Node node) {
+            root = delete(root, node);
+        }
+
+        private Node delete(Node subtree, Node node) {
+            if(subtree == null)
+                return null;
+            if(subtree == node)
+                return merge(subtree.left, subtree.right);
+            if(node.before(subtree))
+                subtree.left = delete(subtree.left, node);
+            else
+                subtree.right = delete(subtree.right, node);
+            update(subtree);
+            return subtree;
+        }
+
+        private void clear() {
+            root = null;
+        }
+
+        private List<Node> overlapping(double low, double high) {
+            List<Node> found = new ArrayList<>();
+            collect(root, low, high, found);
+            return found;
+        }
+
+        private void collect(Node subtree, double low, double high, List<Node> found) {
+            if(subtree == null || subtree.maxHigh < low)
+                return;
+            collect(subtree.left, low, high, found);
+            if(subtree.low > high)
+                return;
+            if(subtree.high >= low)
+                found.add(subtree);
+            collect(subtree.right, low, high, found);
+        }
+
+        //Splits a subtree in the nodes before the given one and the others.
+        private Node[] split(Node subtree, Node pivot) {
+            if(subtree == null)
+                return new Node[] {null, null};
+            if(subtree.before(pivot)) {
+                Node[] parts = split(subtree.right, pivot);
+                subtree.right = parts[0];
+                update(subtree);
+                return new Node[] {subtree, parts[1]};
+            }
+            Node[] parts = split(subtree.left, pivot);
+            subtree.left = parts[1];
+            update(subtree);
+            return new Node[] {parts[0], subtree};
+        }
+
+        //Merges two subtrees where every node of the first comes before every node of the second.
+        private Node merge(Node first, Node second) {
+            if(first == null)
+                return second;
+            if(second == null)
+                return first;
+            if(first.priority > second.priority) {
+                first.right = merge(first.right, second);
+                update(first);
+                return first;
+            }
+            second.left = merge(first, second.left);
+            update(second);
+            return second;
+        }
+
+        private static void update(Node node) {
+            node.maxHigh = node.high;
+            if(node.left != null)
+                node.maxHigh = Math.max(node.maxHigh, node.left.maxHigh);
+            if(node.right != null)
+                node.maxHigh = Math.max(node.maxHigh, node.right.maxHigh);
+        }
+    }
+}
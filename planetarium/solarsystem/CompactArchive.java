@@ -0,0 +1,378 @@
+package planetarium.solarsystem;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+/**
+ * Compact archive of a solar system, much smaller than {@link BodyStore} and {@link Journal} records.
+ * <p>
+ * Coordinates are quantized: every body stores the integer number of quanta of its position relative to
+ * its parent, so the error is at most half a quantum and small offsets take few bytes. Integers are
+ * written as variable-length integers (7 bits per byte, zig-zag for signed values); planet and moon
+ * numbers are stored as the difference from the previous one and masses as the difference from the
+ * previous sibling's. Identifiers are not stored, they follow from the numbers.
+ * <p>
+ * The planets are grouped in blocks of about {@value #BLOCK_BODIES} bodies, each with its length and
+ * checksum and encoded independently of the others. Blocks are encoded and decoded in parallel, a few
+ * at a time, while the stream is written or read in order, so the archive never needs to fit in memory.
+ * @see SolarSystem#writeCompact(OutputStream, double)
+ * @see SolarSystem#readCompact(InputStream)
+ */
+public final class CompactArchive {
+    private static final int MAGIC = 0x50434D50;
+    private static final byte FORMAT = 1;
+
+    /**
+     * Bodies after which a block is closed, the last planet completes it with all its moons.
+     */
+    public static final int BLOCK_BODIES = 4096;
+
+    //Blocks encoded or decoded ahead of the stream.
+    private static final int WINDOW = 2 * ForkJoinPool.getCommonPoolParallelism() + 2;
+
+    private CompactArchive() {}
+
+    /**
+     * Writes a snapshot as a compact archive.
+     * @param snapshot The system to write.
+     * @param out The stream, not closed.
+     * @param quantum The precision of the coordinates: they are rounded to a multiple of it.
+     * @throws IOException If the stream cannot be written.
+     * @throws IllegalArgumentException If the quantum is not positive, or too small for the coordinates.
+     */
+    public static void write(SystemSnapshot snapshot, OutputStream out, double quantum) throws IOException {
+        if(!(quantum > 0))
+            throw new IllegalArgumentException("The quantum has to be positive");
+
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+        Position star = snapshot.getStarPosition();
+        data.writeInt(MAGIC);
+        data.writeByte(FORMAT);
+        data.writeDouble(quantum);
+        data.writeUTF(snapshot.getStarIdentifier());
+        data.writeDouble(star.getX());
+        data.writeDouble(star.getY());
+        data.writeLong(snapshot.getStarMass());
+        data.writeInt(snapshot.getPlanetCounter());
+        data.writeInt(snapshot.getPlanets().size());
+
+        List<PlanetSnapshot> planets = snapshot.getPlanets();
+        Deque<Future<Block>> window = new ArrayDeque<>();
+        int start = 0;
+        while(start < planets.size()) {
+            int end = start;
+            long bodies = 0;
+            while(end < planets.size() && bodies < BLOCK_BODIES)
+                bodies += 1 + planets.get(end++).getMoonCount();
+
+            List<PlanetSnapshot> blockPlanets = planets.subList(start, end);
+            window.add(ForkJoinPool.commonPool().submit(() -> encode(blockPlanets, quantum)));
+            if(window.size() >= WINDOW)
+                await(window.poll()).writeTo(data);
+            start = end;
+        }
+        while(!window.isEmpty())
+            await(window.poll()).writeTo(data);
+        data.flush();
+    }
+
+    //An encoded block: its planets and its bytes.
+    private static final class Block {
+        private final int planets;
+        private final byte[] bytes;
+        private final int length;
+
+        private Block(int planets, byte[] bytes, int length) {
+            this.planets = planets;
+            this.bytes = bytes;
+            this.length = length;
+        }
+
+        private void writeTo(DataOutputStream out) throws IOException {
+            CRC32 crc = new CRC32();
+            crc.update(bytes, 0, length);
+            out.writeInt(planets);
+            out.writeInt(length);
+            out.write(bytes, 0, length);
+            out.writeInt((int) crc.getValue());
+        }
+    }
+
+    //Encodes some consecutive planets with their moons.
+    private static Block encode(List<PlanetSnapshot> planets, double quantum) {
+        Encoder encoder = new Encoder();
+        int previousNumber = 0;
+        long previousMass = 0;
+        for(PlanetSnapshot planet : planets) {
+            encoder.writeUnsigned(planet.getNumber() - previousNumber);
+            encoder.writeSigned(quantize(planet.getX(), quantum));
+            encoder.writeSigned(quantize(planet.getY(), quantum));
+            encoder.writeSigned(planet.getMass() - previousMass);
+            encoder.writeUnsigned(planet.getMoonCounter());
+            encoder.writeUnsigned(planet.getMoonCount());
+            previousNumber = planet.getNumber();
+            previousMass = planet.getMass();
+
+            int previousMoonNumber = 0;
+            long previousMoonMass = 0;
+            for(int i = 0; i < planet.getMoonCount(); i++) {
+                encoder.writeUnsigned(planet.getMoonNumber(i) - previousMoonNumber);
+                encoder.writeSigned(quantize(planet.getMoonX(i), quantum));
+                encoder.writeSigned(quantize(planet.getMoonY(i), quantum));
+                encoder.writeSigned(planet.getMoonMass(i) - previousMoonMass);
+                previousMoonNumber = planet.getMoonNumber(i);
+                previousMoonMass = planet.getMoonMass(i);
+            }
+        }
+        return new Block(planets.size(), encoder.bytes, encoder.length);
+    }
+
+    private static long quantize(double coordinate, double quantum) {
+        double quanta = Math.rint(coordinate / quantum);
+        if(Math.abs(quanta) >= 0x1p62)
+            throw new IllegalArgumentException("The quantum " + quantum + " is too small for the coordinate " + coordinate);
+        return (long) quanta;
+    }
+
+    //Growable buffer of variable-length integers.
+    private static final class Encoder {
+        private byte[] bytes = new byte[1 << 12];
+        private int length = 0;
+
+        private void writeUnsigned(long value) {
+            if(length + 10 > bytes.length)
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            while((value & ~0x7FL) != 0) {
+                bytes[length++] = (byte) (value & 0x7F | 0x80);
+                value >>>= 7;
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        //Zig-zag encoding: small negative values are small too.
+        private void writeSigned(long value) {
+            writeUnsigned(value << 1 ^ value >> 63);
+        }
+    }
+
+    //Reads the variable-length integers of a block.
+    private static final class Decoder {
+        private final byte[] bytes;
+        private int position = 0;
+
+        private Decoder(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        private long readUnsigned() throws IOException {
+            long value = 0;
+            for(int shift = 0; shift < 64; shift += 7) {
+                if(position == bytes.length)
+                    throw new IOException("Truncated block");
+                byte next = bytes[position++];
+                value |= (long) (next & 0x7F) << shift;
+                if(next >= 0)
+                    return value;
+            }
+            throw new IOException("Malformed variable-length integer");
+        }
+
+        private long readSigned() throws IOException {
+            long value = readUnsigned();
+            return value >>> 1 ^ -(value & 1);
+        }
+
+        private int readInt() throws IOException {
+            return Math.toIntExact(readUnsigned());
+        }
+    }
+
+    //Waits for a block encoded or decoded in background.
+    private static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        } catch(ExecutionException e) {
+            if(e.getCause() instanceof IOException io)
+                throw io;
+            if(e.getCause() instanceof RuntimeException runtime)
+                throw runtime;
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Opens an archive to read its planets one at a time, in the order they were written.
+     * @param in The stream of the archive, closed with the reader.
+     * @return The reader, positioned before the first planet.
+     * @throws IOException If the stream is not a compact archive.
+     */
+    public static Reader open(InputStream in) throws IOException {
+        return new Reader(new DataInputStream(new BufferedInputStream(in, 1 << 16)));
+    }
+
+    /**
+     * Streaming reader of an archive, it decodes the following blocks in parallel while the planets of
+     * the current one are consumed. It can be compared with another system by {@link SystemDiff}.
+     */
+    public static final class Reader implements SystemDiff.Source {
+        private final DataInputStream in;
+        private final double quantum;
+        private final String starIdentifier;
+        private final double starX;
+        private final double starY;
+        private final long starMass;
+        private final int planetCounter;
+        private final int planetCount;
+
+        private int planetsNotRead;
+        private final Deque<Future<List<PlanetSnapshot>>> window = new ArrayDeque<>();
+        private Iterator<PlanetSnapshot> current = Collections.emptyIterator();
+
+        private Reader(DataInputStream in) throws IOException {
+            this.in = in;
+            try {
+                if(in.readInt() != MAGIC || in.readByte() != FORMAT)
+                    throw new IOException("Not a compact planetarium archive");
+                quantum = in.readDouble();
+                starIdentifier = in.readUTF();
+                starX = in.readDouble();
+                starY = in.readDouble();
+                starMass = in.readLong();
+                planetCounter = in.readInt();
+                planetCount = in.readInt();
+            } catch(EOFException e) {
+                throw new IOException("Truncated compact archive", e);
+            }
+            planetsNotRead = planetCount;
+        }
+
+        /**
+         * @return The precision of the coordinates in the archive.
+         */
+        public double getQuantum() { return quantum; }
+
+        /**
+         * @return The identifier of the star when the archive was written.
+         */
+        public String getStarIdentifier() { return starIdentifier; }
+
+        /**
+         * @return The absolute position of the star.
+         */
+        public Position getStarPosition() { return new Position(starX, starY); }
+
+        /**
+         * @return The mass of the star.
+         */
+        public long getStarMass() { return starMass; }
+
+        /**
+         * @return The number of planets ever created around the star.
+         */
+        public int getPlanetCounter() { return planetCounter; }
+
+        /**
+         * @return The number of planets in the archive.
+         */
+        public int getPlanetCount() { return planetCount; }
+
+        /**
+         * Reads the next planet with its moons.
+         * @return The planet, or null after the last one.
+         * @throws IOException If the stream cannot be read or a block is damaged.
+         */
+        public PlanetSnapshot next() throws IOException {
+            while(!current.hasNext()) {
+                fill();
+                if(window.isEmpty())
+                    return null;
+                current = await(window.poll()).iterator();
+            }
+            return current.next();
+        }
+
+        //Reads blocks and starts decoding them until the window is full or the archive ends.
+        private void fill() throws IOException {
+            while(window.size() < WINDOW && planetsNotRead > 0) {
+                int planets = in.readInt();
+                int length = in.readInt();
+                if(planets <= 0 || planets > planetsNotRead || length < 0)
+                    throw new IOException("Damaged compact archive");
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                int checksum = in.readInt();
+                planetsNotRead -= planets;
+
+                Callable<List<PlanetSnapshot>> decode = () -> decode(bytes, checksum, planets);
+                window.add(ForkJoinPool.commonPool().submit(decode));
+            }
+        }
+
+        //Decodes the planets of a block, checking it first.
+        private List<PlanetSnapshot> decode(byte[] bytes, int checksum, int planets) throws IOException {
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+            if((int) crc.getValue() != checksum)
+                throw new IOException("Damaged block in compact archive");
+
+            Decoder decoder = new Decoder(bytes);
+            List<PlanetSnapshot> decoded = new ArrayList<>(planets);
+            int number = 0;
+            long mass = 0;
+            for(int planet = 0; planet < planets; planet++) {
+                number += decoder.readInt();
+                double x = decoder.readSigned() * quantum;
+                double y = decoder.readSigned() * quantum;
+                mass += decoder.readSigned();
+                int moonCounter = decoder.readInt();
+                int moons = decoder.readInt();
+
+                int[] moonNumbers = new int[moons];
+                double[] moonX = new double[moons];
+                double[] moonY = new double[moons];
+                long[] moonMass = new long[moons];
+                int moonNumber = 0;
+                long lastMoonMass = 0;
+                for(int i = 0; i < moons; i++) {
+                    moonNumber += decoder.readInt();
+                    moonNumbers[i] = moonNumber;
+                    moonX[i] = decoder.readSigned() * quantum;
+                    moonY[i] = decoder.readSigned() * quantum;
+                    lastMoonMass += decoder.readSigned();
+                    moonMass[i] = lastMoonMass;
+                }
+                decoded.add(new PlanetSnapshot(starIdentifier + "P" + number, number, x, y, mass, moonCounter,
+                        moonNumbers, moonX, moonY, moonMass));
+            }
+            return decoded;
+        }
+
+        @Override
+        public void close() throws IOException {
+            window.forEach(future -> future.cancel(false));
+            window.clear();
+            in.close();
+        }
+    }
+}
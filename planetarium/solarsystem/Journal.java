@@ -0,0 +1,455 @@
+package planetarium.solarsystem;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only binary journal of the modifications of a solar system.
+ * <p>
+ * Every added or removed planet and moon becomes a small checksummed record appended to memory, and a
+ * background thread writes and forces the pending records to disk together (group commit) every few
+ * milliseconds, so a modification costs only the copy of its record.
+ * When the journal grows too much it is compacted: the current system is written as a fresh journal
+ * which atomically replaces the old one, so the time to recover stays bounded.
+ * <p>
+ * At startup {@link #recover(Path)} replays the journal, stopping at the first record that is truncated
+ * or does not match its checksum (a write interrupted by a crash).
+ * Identifiers are preserved, since records carry the progressive numbers of the star, planets and moons.
+ * @see SystemListener
+ */
+public final class Journal implements SystemListener, Closeable {
+    private static final int MAGIC = 0x504A524E;
+
+    //The star record carries the number of the star, so its identifier is preserved too.
+    private static final byte STAR = 1;
+    private static final byte ADD_PLANET = 2;
+    private static final byte ADD_MOON = 3;
+    private static final byte REMOVE_PLANET = 4;
+    private static final byte REMOVE_MOON = 5;
+    private static final byte REMOVE_ALL = 6;
+    private static final byte RESERVE_PLANETS = 7;
+    private static final byte RESERVE_MOONS = 8;
+    //Planet number 0 stands for the star and moon number 0 for the planet itself.
+    private static final byte UPDATE = 9;
+
+    //Upper bound of a record: type, two numbers, two coordinates, mass and checksum.
+    private static final int MAX_RECORD_SIZE = 1 + 4 + 4 + 8 + 8 + 8 + 4;
+
+    /**
+     * Milliseconds between two group commits.
+     */
+    public static final long COMMIT_INTERVAL_MILLIS = 5;
+
+    /**
+     * Number of records appended since the last compaction that triggers a new one.
+     */
+    public static final long COMPACTION_THRESHOLD = 1 << 20;
+
+    private final Path path;
+    private final SolarSystem system;
+    private final Thread committer;
+
+    //Serializes the writes on the file, taken before the monitor of the journal.
+    private final ReentrantLock ioLock = new ReentrantLock();
+    private FileChannel channel;
+
+    //Records not yet written, guarded by the monitor of the journal.
+    private ByteBuffer pending = ByteBuffer.allocate(1 << 16);
+    private ByteBuffer spare = ByteBuffer.allocate(1 << 16);
+    private long recordsSinceCompaction = 0;
+    private boolean closed = false;
+
+    private Journal(Path path, SolarSystem system) {
+        this.path = path;
+        this.system = system;
+        committer = new Thread(this::commitLoop, "planetarium-journal");
+        committer.setDaemon(true);
+    }
+
+    /**
+     * Starts journaling a solar system.
+     * The file is replaced by the compacted content of the system, then every following modification is
+     * appended to it.
+     * @param path The journal file.
+     * @param system The system to journal, usually the one returned by {@link #recover(Path)}.
+     * @return The journal, to be closed when the system is not modified anymore.
+     * @throws IOException If the journal cannot be written.
+     */
+    public static Journal open(Path path, SolarSystem system) throws IOException {
+        Journal journal = new Journal(path, system);
+        StampedLock lock = system.getStar().getLock();
+        long stamp = lock.readLock();
+        try {
+            journal.rewrite(system.getStar().snapshot());
+            system.addListener(journal);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        journal.committer.start();
+        return journal;
+    }
+
+    /**
+     * Rebuilds the solar system saved in a journal.
+     * @param path The journal file.
+     * @return The recovered system, or null if the file does not exist or does not contain a system.
+     * @throws IOException If the journal cannot be read.
+     */
+    public static SolarSystem recover(Path path) throws IOException {
+        if(!Files.exists(path))
+            return null;
+
+        try(InputStream file = Files.newInputStream(path)) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(file, 1 << 16));
+            if(in.readInt() != MAGIC)
+                throw new IOException(path + " is not a planetarium journal");
+            return replay(in);
+        } catch(EOFException empty) {
+            return null;
+        }
+    }
+
+    //Applies the records to a new system until the end of the valid records.
+    private static SolarSystem replay(DataInputStream in) throws IOException {
+        SolarSystem system = null;
+        Map<Integer, Planet> planets = new HashMap<>();
+        byte[] record = new byte[MAX_RECORD_SIZE];
+        CRC32 crc = new CRC32();
+
+        while(true) {
+            int type = in.read();
+            int size = payloadSize(type);
+            if(size < 0)
+                break;
+
+            record[0] = (byte) type;
+            try {
+                in.readFully(record, 1, size);
+                crc.reset();
+                crc.update(record, 0, size + 1);
+                if(in.readInt() != (int) crc.getValue())
+                    break;
+            } catch(EOFException truncated) {
+                break;
+            }
+
+            ByteBuffer fields = ByteBuffer.wrap(record, 1, size);
+            if(type == STAR) {
+                int number = fields.getInt();
+                Position position = new Position(fields.getDouble(), fields.getDouble());
+                system = new SolarSystem(new Star(position, fields.getLong(), BodyArena.DIRECT, number));
+                planets.clear();
+                continue;
+            }
+            if(system == null)
+                throw new IOException("Journal does not start with a star");
+
+            Star star = system.getStar();
+            switch(type) {
+                case ADD_PLANET -> {
+                    int number = fields.getInt();
+                    planets.put(number, star.restorePlanet(number,
+                            new Position(fields.getDouble(), fields.getDouble()), fields.getLong()));
+                }
+                case ADD_MOON -> {
+                    Planet planet = planets.get(fields.getInt());
+                    int number = fields.getInt();
+                    Position position = new Position(fields.getDouble(), fields.getDouble());
+                    long mass = fields.getLong();
+                    if(planet != null)
+                        planet.restoreMoon(number, position, mass);
+                }
+                case REMOVE_PLANET -> {
+                    Planet planet = planets.remove(fields.getInt());
+                    if(planet != null)
+                        planet.removeFromSystem();
+                }
+                case REMOVE_MOON -> {
+                    Planet planet = planets.get(fields.getInt());
+                    int number = fields.getInt();
+                    Moon moon = (planet == null ? null : Satellite.findByNumber(planet.getMoons(), number));
+                    if(moon != null)
+                        moon.removeFromSystem();
+                }
+                case REMOVE_ALL -> {
+                    star.removeAllPlanets();
+                    planets.clear();
+                }
+                case RESERVE_PLANETS -> star.reservePlanetNumbers(fields.getInt());
+                case RESERVE_MOONS -> {
+                    Planet planet = planets.get(fields.getInt());
+                    int number = fields.getInt();
+                    if(planet != null)
+                        planet.reserveMoonNumbers(number);
+                }
+                case UPDATE -> {
+                    int planetNumber = fields.getInt();
+                    int moonNumber = fields.getInt();
+                    CelestialBody body = star;
+                    if(planetNumber != 0) {
+                        Planet planet = planets.get(planetNumber);
+                        body = (planet == null || moonNumber == 0 ? planet
+                                : Satellite.findByNumber(planet.getMoons(), moonNumber));
+                    }
+                    double x = fields.getDouble();
+                    double y = fields.getDouble();
+                    long mass = fields.getLong();
+                    if(body != null)
+                        body.update(new Position(x, y), mass);
+                }
+                default -> throw new IllegalStateException("Unexpected record " + type);
+            }
+        }
+        return system;
+    }
+
+    //Size of the fields of a record type, negative if the type does not exist.
+    private static int payloadSize(int type) {
+        return switch(type) {
+            case STAR -> 4 + 8 + 8 + 8;
+            case ADD_PLANET -> 4 + 8 + 8 + 8;
+            case ADD_MOON, UPDATE -> 4 + 4 + 8 + 8 + 8;
+            case REMOVE_PLANET, RESERVE_PLANETS -> 4;
+            case REMOVE_MOON, RESERVE_MOONS -> 4 + 4;
+            case REMOVE_ALL -> 0;
+            default -> -1;
+        };
+    }
+
+    //Encodes a record, only the fields used by its type are written.
+    private static void putRecord(ByteBuffer buffer, byte type, int first, int second, double x, double y, long mass) {
+        int start = buffer.position();
+        buffer.put(type);
+        switch(type) {
+            case STAR -> buffer.putInt(first).putDouble(x).putDouble(y).putLong(mass);
+            case ADD_PLANET -> buffer.putInt(first).putDouble(x).putDouble(y).putLong(mass);
+            case ADD_MOON, UPDATE -> buffer.putInt(first).putInt(second).putDouble(x).putDouble(y).putLong(mass);
+            case REMOVE_PLANET, RESERVE_PLANETS -> buffer.putInt(first);
+            case REMOVE_MOON, RESERVE_MOONS -> buffer.putInt(first).putInt(second);
+            default -> {}
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), buffer.arrayOffset() + start, buffer.position() - start);
+        buffer.putInt((int) crc.getValue());
+    }
+
+    //Appends a record to the pending ones, it reaches the disk with the next group commit.
+    private synchronized void append(byte type, int first, int second, double x, double y, long mass) {
+        if(closed)
+            return;
+        if(pending.remaining() < MAX_RECORD_SIZE) {
+            ByteBuffer larger = ByteBuffer.allocate(pending.capacity() * 2);
+            pending.flip();
+            larger.put(pending);
+            pending = larger;
+        }
+        putRecord(pending, type, first, second, x, y, mass);
+        recordsSinceCompaction++;
+    }
+
+    @Override
+    public void planetAdded(Planet planet) {
+        Position position = planet.getRelativePosition();
+        append(ADD_PLANET, planet.getNumber(), 0, position.getX(), position.getY(), planet.getMass());
+    }
+
+    @Override
+    public void moonAdded(Moon moon) {
+        Position position = moon.getRelativePosition();
+        append(ADD_MOON, ((Planet)moon.getParent()).getNumber(), moon.getNumber(), position.getX(), position.getY(),
+                moon.getMass());
+    }
+
+    @Override
+    public void planetRemoved(Planet planet) {
+        append(REMOVE_PLANET, planet.getNumber(), 0, 0, 0, 0);
+    }
+
+    @Override
+    public void moonRemoved(Moon moon) {
+        append(REMOVE_MOON, ((Planet)moon.getParent()).getNumber(), moon.getNumber(), 0, 0, 0);
+    }
+
+    @Override
+    public void allPlanetsRemoved() {
+        append(REMOVE_ALL, 0, 0, 0, 0, 0);
+    }
+
+    @Override
+    public void bodyUpdated(CelestialBody body, Position oldPosition, long oldMass) {
+        int planetNumber = 0;
+        int moonNumber = 0;
+        Position position;
+        if(body instanceof Moon moon) {
+            planetNumber = ((Planet)moon.getParent()).getNumber();
+            moonNumber = moon.getNumber();
+            position = moon.getRelativePosition();
+        } else if(body instanceof Planet planet) {
+            planetNumber = planet.getNumber();
+            position = planet.getRelativePosition();
+        } else {
+            position = body.getAbsolutePosition();
+        }
+        append(UPDATE, planetNumber, moonNumber, position.getX(), position.getY(), body.getMass());
+    }
+
+    //Writes the pending records and forces them to disk every commit interval.
+    private void commitLoop() {
+        while(true) {
+            try {
+                Thread.sleep(COMMIT_INTERVAL_MILLIS);
+                synchronized(this) {
+                    if(closed)
+                        return;
+                }
+                sync();
+                if(needsCompaction())
+                    compact();
+            } catch(InterruptedException e) {
+                return;
+            } catch(IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private synchronized boolean needsCompaction() {
+        return recordsSinceCompaction >= COMPACTION_THRESHOLD;
+    }
+
+    /**
+     * Writes the pending records and forces them to disk without waiting for the next group commit.
+     * @throws IOException If the journal cannot be written.
+     */
+    public void sync() throws IOException {
+        ioLock.lock();
+        try {
+            ByteBuffer toWrite;
+            synchronized(this) {
+                if(pending.position() == 0 || channel == null)
+                    return;
+                toWrite = pending;
+                pending = spare;
+                spare = toWrite;
+            }
+
+            toWrite.flip();
+            while(toWrite.hasRemaining())
+                channel.write(toWrite);
+            toWrite.clear();
+            channel.force(false);
+        } finally {
+            ioLock.unlock();
+        }
+    }
+
+    /**
+     * Replaces the journal with the current content of the system.
+     * Writers of the system wait for the compaction, readers do not.
+     * @throws IOException If the journal cannot be written.
+     */
+    public void compact() throws IOException {
+        StampedLock lock = system.getStar().getLock();
+        long stamp = lock.readLock();
+        try {
+            sync();
+            rewrite(system.getStar().snapshot());
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    //Writes the snapshot as a new journal and swaps it with the current file.
+    //The caller has to hold the read lock of the system, so no record is appended meanwhile.
+    private void rewrite(SystemSnapshot snapshot) throws IOException {
+        ioLock.lock();
+        try {
+            Path temporary = path.resolveSibling(path.getFileName() + ".compact");
+            try(FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+                buffer.putInt(MAGIC);
+                Position starPosition = snapshot.getStarPosition();
+                putRecord(buffer, STAR, Math.max(Star.numberOf(snapshot.getStarIdentifier()), 0), 0,
+                        starPosition.getX(), starPosition.getY(), snapshot.getStarMass());
+
+                for(PlanetSnapshot planet : snapshot.getPlanets()) {
+                    buffer = ensureRoom(out, buffer);
+                    putRecord(buffer, ADD_PLANET, planet.getNumber(), 0, planet.getX(), planet.getY(), planet.getMass());
+                    for(int i = 0; i < planet.getMoonCount(); i++) {
+                        buffer = ensureRoom(out, buffer);
+                        putRecord(buffer, ADD_MOON, planet.getNumber(), planet.getMoonNumber(i), planet.getMoonX(i),
+                                planet.getMoonY(i), planet.getMoonMass(i));
+                    }
+                    buffer = ensureRoom(out, buffer);
+                    putRecord(buffer, RESERVE_MOONS, planet.getNumber(), planet.getMoonCounter(), 0, 0, 0);
+                }
+                buffer = ensureRoom(out, buffer);
+                putRecord(buffer, RESERVE_PLANETS, snapshot.getPlanetCounter(), 0, 0, 0, 0);
+
+                buffer.flip();
+                while(buffer.hasRemaining())
+                    out.write(buffer);
+                out.force(false);
+            }
+
+            if(channel != null)
+                channel.close();
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            synchronized(this) {
+                recordsSinceCompaction = 0;
+            }
+        } finally {
+            ioLock.unlock();
+        }
+    }
+
+    //Writes the buffer to the channel if another record may not fit in it.
+    private static ByteBuffer ensureRoom(FileChannel out, ByteBuffer buffer) throws IOException {
+        if(buffer.remaining() >= MAX_RECORD_SIZE)
+            return buffer;
+        buffer.flip();
+        while(buffer.hasRemaining())
+            out.write(buffer);
+        return buffer.clear();
+    }
+
+    /**
+     * Stops journaling: the pending records are forced to disk and the following modifications are ignored.
+     * @throws IOException If the journal cannot be written.
+     */
+    @Override
+    public void close() throws IOException {
+        system.removeListener(this);
+        sync();
+        synchronized(this) {
+            closed = true;
+        }
+        committer.interrupt();
+        ioLock.lock();
+        try {
+            if(channel != null)
+                channel.close();
+            channel = null;
+        } finally {
+            ioLock.unlock();
+        }
+    }
+}
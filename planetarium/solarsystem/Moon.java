@@ -1,18 +1,39 @@
 package planetarium.solarsystem;
 
+import java.util.concurrent.locks.StampedLock;
+
 /**
  * Represents a moon that orbits around a planet.
+ * <p>
+ * The moons are stored by their planet outside the heap, see {@link MoonTable}: an instance is created
+ * every time a moon is read from its planet, and reads position and mass from the planet again while the
+ * moon orbits it. Instances of the same moon are equal. A removed moon keeps the last position and mass
+ * it read.
  */
 public class Moon extends Satellite {
+    //Position of the record of the moon when last read, where it is looked for first.
+    private int indexHint;
+
+    //Package-private because it should be instantiated ONLY from the moons of a planet.
+    Moon(Planet planet, int number, int index, double x, double y, long moonMass) {
+        super(new Position(x, y), moonMass, planet.getIdentifier() + "M" + number, planet);
+        this.indexHint = index;
+    }
 
-    //Protected because it should be instantiated ONLY from a Planet object's appropriate method.
-    protected Moon(Position moonPosition, long moonMass, Planet planet) {
-        super(moonPosition, moonMass, planet.getIdentifier() + "M" + (planet.getNumberOfMoons() + 1), planet);
+    int getIndexHint() {
+        return indexHint;
     }
 
-    //Protected because it should be instantiated ONLY from a Planet object's appropriate method.
-    protected Moon(double x, double y, long moonMass, Planet planet) {
-        this(new Position(x,y), moonMass, planet);
+    //Stores the record just read by the moons of the planet.
+    void refresh(int index, double x, double y, long mass) {
+        indexHint = index;
+        assign(new Position(x, y), mass);
+    }
+
+    //Reads the record of the moon again, if it still orbits its planet.
+    private void refresh() {
+        if(getParent() instanceof Planet planet)
+            planet.getMoonTable().read(this);
     }
 
     /**
@@ -22,9 +43,54 @@ public class Moon extends Satellite {
      */
     @Override
     public Position getAbsolutePosition() {
-        Position absolutePosition = getRelativePosition();
-        absolutePosition.increase(getParent().getAbsolutePosition());
-        return absolutePosition;
+        return cachedAbsolutePosition();
+    }
+
+    @Override
+    public Position getRelativePosition() {
+        refresh();
+        return super.getRelativePosition();
+    }
+
+    @Override
+    public long getMass() {
+        refresh();
+        return super.getMass();
+    }
+
+    @Override
+    public void setMass(long mass) {
+        update(getRelativePosition(), mass);
+    }
+
+    //Moves the moon or changes its mass, updating the aggregates of its planet.
+    @Override
+    protected void update(Position newPosition, long newMass) {
+        Planet planet = (Planet)getParent();
+        //A removed moon, or a moon of a removed planet, would change the DETACHED bodies.
+        planet.checkNotDetached();
+        StampedLock lock = planet.getLock();
+        long stamp = lock.writeLock();
+        try {
+            MoonTable moons = planet.getMoonTable();
+            //The moon or its planet may have been removed by another writer meanwhile.
+            planet.checkNotDetached();
+            int index = moons.indexOf(getNumber());
+            if(index < 0)
+                throw new IllegalStateException("The moon " + getIdentifier() + " was removed from its planet");
+            Position oldPosition = new Position(moons.getX(index), moons.getY(index));
+            long oldMass = moons.getMass(index);
+            planet.aggregate(oldPosition, oldMass, -1);
+            moons.update(index, newPosition, newMass);
+            planet.aggregate(newPosition, newMass, 1);
+            indexHint = index;
+            assign(newPosition, newMass);
+            getStar().markMoved();
+            planet.markModified();
+            getStar().notifyListeners(listener -> listener.bodyUpdated(this, oldPosition, oldMass));
+        } finally {
+            lock.unlockWrite(stamp);
+        }
     }
 
     /**
@@ -32,8 +98,25 @@ public class Moon extends Satellite {
      */
     public void removeFromSystem() {
         ((Planet)getParent()).removeOldMoon(this);
-        parent = new Planet(0,0,0,new Star(0,0,0));
+        deletePlanetReference();
+    }
+
+    //Replaces the reference to its planet with the DETACHED one, used when deleting the moon.
+    protected void deletePlanetReference() {
+        parent = Planet.DETACHED;
     }
 
+    /**
+     * @param other Another object.
+     * @return True if the other object is an instance of the same moon.
+     */
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof Moon moon && getIdentifier().equals(moon.getIdentifier());
+    }
 
-}
\ No newline at end of file
+    @Override
+    public int hashCode() {
+        return getIdentifier().hashCode();
+    }
+}
@@ -0,0 +1,240 @@
+package planetarium.solarsystem;
+
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.RandomAccess;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Moons of a planet, stored outside the Java heap in a buffer of the {@link BodyArena} of the star.
+ * <p>
+ * Every moon is a record of number, x, y and mass, sorted by number. There are no moon objects on the
+ * heap: {@link #get(int)} creates a {@link Moon} that finds its record again by number whenever it is
+ * read, so the heap used by a system does not grow with its moons.
+ * <p>
+ * Writers hold the write lock of the star. Moons can be read without it, even by the listeners called
+ * under the write lock: the table is a sequence lock, whose counter is odd while a writer changes the
+ * records, and readers retry until they read the records with the same even counter before and after.
+ */
+final class MoonTable extends AbstractList<Moon> implements RandomAccess {
+    private static final int NUMBER = 0;
+    private static final int X = 4;
+    private static final int Y = 12;
+    private static final int MASS = 20;
+    private static final int RECORD_SIZE = 28;
+    private static final int INITIAL_CAPACITY = 8;
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final Planet planet;
+    private final BodyArena arena;
+    //Replaced by a larger one when full. Readers read the size first, so the buffer is never too small.
+    private volatile ByteBuffer records = EMPTY;
+    private volatile int size = 0;
+    private volatile int sequence = 0;
+
+    MoonTable(Planet planet, BodyArena arena) {
+        this.planet = planet;
+        this.arena = arena;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Reads a moon.
+     * @param index The position of the moon, in order of number.
+     * @return A new instance of the moon, equal to every other instance of it.
+     */
+    @Override
+    public Moon get(int index) {
+        while(true) {
+            int before = sequence;
+            int currentSize = size;
+            ByteBuffer buffer = records;
+            boolean valid = (before & 1) == 0 && index >= 0 && index < currentSize;
+            int offset = index * RECORD_SIZE;
+            int number = valid ? buffer.getInt(offset + NUMBER) : 0;
+            double x = valid ? buffer.getDouble(offset + X) : 0;
+            double y = valid ? buffer.getDouble(offset + Y) : 0;
+            long mass = valid ? buffer.getLong(offset + MASS) : 0;
+            VarHandle.loadLoadFence();
+            if(sequence == before && (before & 1) == 0) {
+                if(!valid)
+                    throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + currentSize);
+                return new Moon(planet, number, index, x, y, mass);
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    //Copies the current record of a moon into it, found near its last position or by number.
+    //Returns false, leaving the moon as it is, if the planet has no moon with its number.
+    boolean read(Moon moon) {
+        int number = moon.getNumber();
+        while(true) {
+            int before = sequence;
+            int currentSize = size;
+            ByteBuffer buffer = records;
+            int index = moon.getIndexHint();
+            if(index < 0 || index >= currentSize || buffer.getInt(index * RECORD_SIZE + NUMBER) != number)
+                index = search(buffer, currentSize, number);
+            int offset = index * RECORD_SIZE;
+            double x = index >= 0 ? buffer.getDouble(offset + X) : 0;
+            double y = index >= 0 ? buffer.getDouble(offset + Y) : 0;
+            long mass = index >= 0 ? buffer.getLong(offset + MASS) : 0;
+            VarHandle.loadLoadFence();
+            if(sequence == before && (before & 1) == 0) {
+                if(index < 0)
+                    return false;
+                moon.refresh(index, x, y, mass);
+                return true;
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    //Position of a number in the first records of a buffer, minus the insertion point minus one if absent.
+    private static int search(ByteBuffer buffer, int size, int number) {
+        int low = 0;
+        int high = size - 1;
+        while(low <= high) {
+            int middle = (low + high) >>> 1;
+            int middleNumber = buffer.getInt(middle * RECORD_SIZE + NUMBER);
+            if(middleNumber < number)
+                low = middle + 1;
+            else if(middleNumber > number)
+                high = middle - 1;
+            else
+                return middle;
+        }
+        return -(low + 1);
+    }
+
+    //The following methods read the records directly, the caller has to hold the lock of the star.
+
+    //Position of the moon with the given number, -1 if there is none.
+    int indexOf(int number) {
+        return Math.max(search(records, size, number), -1);
+    }
+
+    //Position where a moon with the given number goes.
+    int insertionIndex(int number) {
+        int index = search(records, size, number);
+        return index < 0 ? -index - 1 : index;
+    }
+
+    int getNumber(int index) { return records.getInt(index * RECORD_SIZE + NUMBER); }
+
+    double getX(int index) { return records.getDouble(index * RECORD_SIZE + X); }
+
+    double getY(int index) { return records.getDouble(index * RECORD_SIZE + Y); }
+
+    long getMass(int index) { return records.getLong(index * RECORD_SIZE + MASS); }
+
+    //Copies the first moons into parallel arrays.
+    void copyTo(int[] numbers, double[] x, double[] y, long[] mass) {
+        ByteBuffer buffer = records;
+        for(int i = 0; i < numbers.length; i++) {
+            int offset = i * RECORD_SIZE;
+            numbers[i] = buffer.getInt(offset + NUMBER);
+            x[i] = buffer.getDouble(offset + X);
+            y[i] = buffer.getDouble(offset + Y);
+            mass[i] = buffer.getLong(offset + MASS);
+        }
+    }
+
+    //The following methods change the records, the caller has to hold the write lock of the star.
+
+    private void beginWrite() {
+        sequence++;
+        VarHandle.storeStoreFence();
+    }
+
+    private void endWrite() {
+        sequence++;
+    }
+
+    //Inserts a moon at the given position, which has to keep the records sorted by number.
+    void insert(int index, int number, Position position, long mass) {
+        if(index < 0 || index > size)
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + (size + 1));
+        ByteBuffer buffer = records;
+        if((size + 1) * RECORD_SIZE > buffer.capacity()) {
+            ByteBuffer larger = arena.allocate(Math.max(INITIAL_CAPACITY, 2 * size) * RECORD_SIZE);
+            larger.put(0, buffer, 0, size * RECORD_SIZE);
+            //Published before the size grows, so no reader sees the new size with the old buffer.
+            records = larger;
+            buffer = larger;
+        }
+
+        beginWrite();
+        int offset = index * RECORD_SIZE;
+        buffer.put(offset + RECORD_SIZE, buffer, offset, (size - index) * RECORD_SIZE);
+        buffer.putInt(offset + NUMBER, number)
+                .putDouble(offset + X, position.getX())
+                .putDouble(offset + Y, position.getY())
+                .putLong(offset + MASS, mass);
+        size++;
+        modCount++;
+        endWrite();
+    }
+
+    //Replaces position and mass of the moon at the given position.
+    void update(int index, Position position, long mass) {
+        beginWrite();
+        int offset = index * RECORD_SIZE;
+        records.putDouble(offset + X, position.getX())
+                .putDouble(offset + Y, position.getY())
+                .putLong(offset + MASS, mass);
+        endWrite();
+    }
+
+    //Removes the moon at the given position.
+    void delete(int index) {
+        if(index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + size);
+        beginWrite();
+        int offset = index * RECORD_SIZE;
+        records.put(offset, records, offset + RECORD_SIZE, (size - index - 1) * RECORD_SIZE);
+        size--;
+        modCount++;
+        endWrite();
+    }
+
+    //Removes the moons matching the filter, passing them in order to the consumer, and returns how many
+    //they are. The moons are tested first, then the kept records are moved back in a single pass.
+    int removeIf(Predicate<? super Moon> filter, Consumer<? super Moon> onRemoved) {
+        int currentSize = size;
+        boolean[] matching = new boolean[currentSize];
+        int removed = 0;
+        for(int i = 0; i < currentSize; i++) {
+            Moon moon = get(i);
+            if(filter.test(moon)) {
+                matching[i] = true;
+                removed++;
+                onRemoved.accept(moon);
+            }
+        }
+        if(removed == 0)
+            return 0;
+
+        beginWrite();
+        ByteBuffer buffer = records;
+        int kept = 0;
+        for(int i = 0; i < currentSize; i++) {
+            if(!matching[i]) {
+                if(kept != i)
+                    buffer.put(kept * RECORD_SIZE, buffer, i * RECORD_SIZE, RECORD_SIZE);
+                kept++;
+            }
+        }
+        size = kept;
+        modCount++;
+        endWrite();
+        return removed;
+    }
+}
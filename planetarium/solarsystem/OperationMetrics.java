@@ -0,0 +1,204 @@
+package planetarium.solarsystem;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Supplier;
+
+/**
+ * Counters and latency histograms of the queries of a solar system, plus gauges of its size.
+ * <p>
+ * The histograms are log-linear like HDR histograms: every power of two of nanoseconds is split in
+ * {@value #SUB_BUCKETS} buckets, so a latency is recorded with a relative error below 12.5% by a single
+ * atomic increment and without allocating.
+ * The measurements are off unless the system property {@code planetarium.metrics} is true or
+ * {@link #setEnabled(boolean)} is called.
+ * @see SolarSystem#getMetrics()
+ */
+public final class OperationMetrics implements SolarSystemMetricsMXBean {
+    /**
+     * The measured operations of the solar system.
+     */
+    public enum Operation {
+        FIND_CELESTIAL_BODY, CENTER_OF_MASS, DETECT_COLLISIONS, FIND_PATH, FIND_ROUTE, STATISTICS
+    }
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = 64 * SUB_BUCKETS;
+
+    private final Star star;
+    private volatile boolean enabled = Boolean.getBoolean("planetarium.metrics");
+
+    private final LongAdder[] counts = new LongAdder[Operation.values().length];
+    private final LongAdder[] totalNanos = new LongAdder[Operation.values().length];
+    private final AtomicLongArray[] histograms = new AtomicLongArray[Operation.values().length];
+
+    //Created only by the solar system that owns the star.
+    OperationMetrics(Star star) {
+        this.star = star;
+        for(int i = 0; i < counts.length; i++) {
+            counts[i] = new LongAdder();
+            totalNanos[i] = new LongAdder();
+            histograms[i] = new AtomicLongArray(BUCKETS);
+        }
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    //Start time of an operation, 0 when the measurements are off.
+    long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    //Records the end of an operation started with start().
+    void stop(Operation operation, long start) {
+        if(start == 0)
+            return;
+        long elapsed = Math.max(System.nanoTime() - start, 0);
+        int index = operation.ordinal();
+        counts[index].increment();
+        totalNanos[index].add(elapsed);
+        histograms[index].incrementAndGet(bucketOf(elapsed));
+    }
+
+    //Bucket of a latency: the position of its highest bit and the following SUB_BUCKET_BITS bits.
+    private static int bucketOf(long nanos) {
+        if(nanos < SUB_BUCKETS)
+            return (int) nanos;
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    //Highest latency that falls in a bucket.
+    private static long upperBoundOf(int bucket) {
+        if(bucket < SUB_BUCKETS)
+            return bucket;
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        long lowerBound = (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+        return lowerBound + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    /**
+     * @param operation The measured operation.
+     * @return How many times the operation was executed while the measurements were on.
+     */
+    public long getCount(Operation operation) {
+        return counts[operation.ordinal()].sum();
+    }
+
+    /**
+     * @param operation The measured operation.
+     * @return The mean latency of the operation in nanoseconds, 0 if it was never measured.
+     */
+    public double getMeanNanos(Operation operation) {
+        long count = getCount(operation);
+        return count == 0 ? 0 : (double) totalNanos[operation.ordinal()].sum() / count;
+    }
+
+    /**
+     * @param operation The measured operation.
+     * @param percentile The percentile, between 0 and 100.
+     * @return The latency in nanoseconds under which the given percentile of the executions fall.
+     */
+    public long getPercentileNanos(Operation operation, double percentile) {
+        AtomicLongArray histogram = histograms[operation.ordinal()];
+        long total = 0;
+        for(int i = 0; i < BUCKETS; i++)
+            total += histogram.get(i);
+        if(total == 0)
+            return 0;
+
+        long threshold = (long) Math.ceil(total * percentile / 100.0);
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; i++) {
+            seen += histogram.get(i);
+            if(seen >= Math.max(threshold, 1))
+                return upperBoundOf(i);
+        }
+        return upperBoundOf(BUCKETS - 1);
+    }
+
+    @Override
+    public int getPlanetCount() {
+        return read(() -> (long) star.getPlanets().size()).intValue();
+    }
+
+    @Override
+    public long getMoonCount() {
+        return read(() -> {
+            long moons = 0;
+            for(Planet planet : star.getPlanets())
+                moons += planet.getMoons().size();
+            return moons;
+        });
+    }
+
+    //Reads a gauge under the read lock of the star.
+    private Long read(Supplier<Long> gauge) {
+        StampedLock lock = star.getLock();
+        long stamp = lock.readLock();
+        try {
+            return gauge.get();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public String[] getOperationSummaries() {
+        String[] summaries = new String[Operation.values().length];
+        for(Operation operation : Operation.values()) {
+            summaries[operation.ordinal()] = String.format("%s count=%d mean=%.0fns p50=%dns p99=%dns p99.9=%dns max=%dns",
+                    operation, getCount(operation), getMeanNanos(operation), getPercentileNanos(operation, 50),
+                    getPercentileNanos(operation, 99), getPercentileNanos(operation, 99.9),
+                    getPercentileNanos(operation, 100));
+        }
+        return summaries;
+    }
+
+    @Override
+    public void reset() {
+        for(int i = 0; i < counts.length; i++) {
+            counts[i].reset();
+            totalNanos[i].reset();
+            for(int bucket = 0; bucket < BUCKETS; bucket++)
+                histograms[i].set(bucket, 0);
+        }
+    }
+
+    /**
+     * Text dump of all the metrics, one per line.
+     * @return The gauges followed by the summary of every operation.
+     */
+    public String dump() {
+        StringBuilder dump = new StringBuilder();
+        dump.append(String.format("enabled=%b planets=%d moons=%d version=%d%n", isEnabled(), getPlanetCount(),
+                getMoonCount(), star.getVersion()));
+        for(String summary : getOperationSummaries())
+            dump.append(summary).append(System.lineSeparator());
+        return dump.toString();
+    }
+
+    /**
+     * Publishes the metrics on the platform MBean server, under planetarium:type=SolarSystem,star=&lt;id&gt;.
+     * @throws JMException If the metrics cannot be registered, for example because they already are.
+     */
+    public void registerMBean() throws JMException {
+        ObjectName name = new ObjectName("planetarium:type=SolarSystem,star=" + star.getIdentifier());
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+    }
+}
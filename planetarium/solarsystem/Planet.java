@@ -4,23 +4,38 @@ import planetarium.solarsystem.error.CelestialBodyNotFoundException;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Predicate;
 
 /**
  * Represents a planet that orbits a star.
  */
 public class Planet extends Satellite {
-    private final List<Moon> moons;
+    private final MoonTable moons;
     private int numberOfMoons = 0;
+    //Snapshot of the planet and its moons, discarded when the moons change.
+    private volatile PlanetSnapshot snapshot;
+
+    //Aggregates of the moons, updated with every moon added or moved under the write lock and computed
+    //again from the records when moons are removed, so a removed heavy moon leaves no rounding behind.
+    //The weighted sums use the moons' positions relative to the planet, so they survive planet moves.
+    private long moonsMass = 0;
+    private MassKernel.CompensatedSum moonsWeightedX = new MassKernel.CompensatedSum();
+    private MassKernel.CompensatedSum moonsWeightedY = new MassKernel.CompensatedSum();
 
     /**
      * The maximum number of moons that can orbit a planet.
+     * It can be configured with the system property planetarium.maxMoons, 5000 by default.
      */
-    public static final int MAX_NUMBER_OF_MOONS = 5000;
+    public static final int MAX_NUMBER_OF_MOONS = Integer.getInteger("planetarium.maxMoons", 5000);
+
+    //Parent shared by every moon removed from its planet, it never has moons and never changes.
+    static final Planet DETACHED = new Planet(0, 0, 0, Star.DETACHED);
 
     //Protected because it should be instantiated ONLY from a Star object's appropriate method.
     Planet(Position planetPosition, long planetMass, Star star) {
         super(planetPosition, planetMass, star.getIdentifier() + "P" + (star.getNumberOfPlanets() + 1),star);
-        moons = new ArrayList<>();
+        moons = new MoonTable(this, star.getArena());
     }
 
     //Protected because it should be instantiated ONLY from a Star object's appropriate method.
@@ -35,25 +50,160 @@ public class Planet extends Satellite {
      */
     @Override
     public Position getAbsolutePosition() {
-        Position absolutePosition = getRelativePosition();
-        absolutePosition.increase(getParent().getAbsolutePosition());
-        return absolutePosition;
+        return cachedAbsolutePosition();
     }
 
     /**
      * Getter method for the list of moons orbiting the planet.
-     * @return The list of moons orbiting the planet.
+     * The moons are stored outside the heap: the list creates an instance of a moon every time it is read.
+     * @return The read-only list of moons orbiting the planet.
      * @see Moon
      */
     public List<Moon> getMoons() {
         return moons;
     }
 
+    //Rejects a modification of a planet removed from its system, or of the DETACHED planet: they are
+    //guarded by the lock of the DETACHED star, which is shared by every system.
+    void checkNotDetached() {
+        if(getParent() == Star.DETACHED)
+            throw new IllegalStateException("The planet " + getIdentifier() + " was removed from its system");
+    }
+
+    //The records of the moons, read directly by the classes of the package.
+    MoonTable getMoonTable() {
+        return moons;
+    }
+
+    //The moons are guarded by the lock of the star the planet orbits.
+    protected StampedLock getLock() {
+        return ((Star)getParent()).getLock();
+    }
+
+    //Records a modification of the planet or its moons, the caller has to hold the write lock.
+    protected void markModified() {
+        snapshot = null;
+        ((Star)getParent()).markModified();
+    }
+
+    //Returns the snapshot of the planet, reused until its moons change.
+    //The caller has to hold the read lock of the star.
+    protected PlanetSnapshot snapshot() {
+        PlanetSnapshot current = snapshot;
+        if(current == null) {
+            current = PlanetSnapshot.of(this);
+            snapshot = current;
+        }
+        return current;
+    }
+
+    //Adds (sign 1) or subtracts (sign -1) a moon from the aggregates of the planet.
+    //The caller has to hold the write lock.
+    protected void aggregate(Position moonRelativePosition, long moonMass, int sign) {
+        moonsMass += sign * moonMass;
+        moonsWeightedX.add(sign * moonMass * moonRelativePosition.getX());
+        moonsWeightedY.add(sign * moonMass * moonRelativePosition.getY());
+    }
+
+    //Computes the aggregates again from the records of the moons, exactly zero without moons.
+    //The caller has to hold the write lock.
+    private void recomputeAggregates() {
+        moonsMass = 0;
+        moonsWeightedX = new MassKernel.CompensatedSum();
+        moonsWeightedY = new MassKernel.CompensatedSum();
+        for(int i = 0; i < moons.size(); i++)
+            aggregate(new Position(moons.getX(i), moons.getY(i)), moons.getMass(i), 1);
+    }
+
+    //Moves the planet or changes its mass, the moons follow it since they are relative.
+    @Override
+    protected void update(Position newPosition, long newMass) {
+        checkNotDetached();
+        StampedLock lock = getLock();
+        long stamp = lock.writeLock();
+        try {
+            //The planet may have been removed by another writer meanwhile.
+            checkNotDetached();
+            Position oldPosition = getRelativePosition();
+            long oldMass = getMass();
+            assign(newPosition, newMass);
+            getStar().markMoved();
+            markModified();
+            getStar().notifyListeners(listener -> listener.bodyUpdated(this, oldPosition, oldMass));
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Getter method for the mass of the subsystem made of the planet and its moons.
+     * The moons' masses are aggregated as they are added and removed, so it costs O(1).
+     * @return The mass of the planet plus the masses of its moons.
+     */
+    public long getSubsystemMass() {
+        return getMass() + moonsMass;
+    }
+
+    /**
+     * Getter method for the barycenter of the subsystem made of the planet and its moons.
+     * The weighted positions of the moons are aggregated as they are added and removed, so it costs O(1).
+     * @return The absolute position of the center of mass of the planet and its moons.
+     * @see Position
+     */
+    public Position getBarycenter() {
+        Position barycenter = getRelativeBarycenter();
+        barycenter.increase(getParent().getAbsolutePosition());
+        return barycenter;
+    }
+
+    //Barycenter of the planet and its moons relative to the star.
+    protected Position getRelativeBarycenter() {
+        Position relative = getRelativePosition();
+        double subsystemMass = getSubsystemMass();
+        return new Position(relative.getX() + moonsWeightedX.value() / subsystemMass,
+                relative.getY() + moonsWeightedY.value() / subsystemMass);
+    }
+
     //Counter of the moons created around the planet, used to create identifiers that are unique.
     protected int getNumberOfMoons() {
         return numberOfMoons;
     }
 
+    //Recreates a moon with the given progressive number, used to restore a saved system.
+    //The number must not belong to another moon of the planet, the moon is placed in order of number.
+    protected Moon restoreMoon(int number, Position moonRelativePosition, long moonMass) {
+        checkNotDetached();
+        StampedLock lock = getLock();
+        long stamp = lock.writeLock();
+        try {
+            int index = moons.insertionIndex(number);
+            moons.insert(index, number, moonRelativePosition, moonMass);
+            numberOfMoons = Math.max(numberOfMoons, number);
+            aggregate(moonRelativePosition, moonMass, 1);
+            markModified();
+            Moon moon = moons.get(index);
+            ((Star)getParent()).notifyListeners(listener -> listener.moonAdded(moon));
+            return moon;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    //Makes sure the next moon gets a number greater than the given one, used to restore a saved system.
+    protected void reserveMoonNumbers(int number) {
+        checkNotDetached();
+        StampedLock lock = getLock();
+        long stamp = lock.writeLock();
+        try {
+            if(number > numberOfMoons) {
+                numberOfMoons = number;
+                markModified();
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
     /**
      * Given an identifier, it searches for a moon around the planet with the same identifier.
      * WARNING: It does not search for moons on another planets!
@@ -64,11 +214,9 @@ public class Planet extends Satellite {
      * @see CelestialBodyNotFoundException
      */
     public Moon findMoon(String identifier) throws CelestialBodyNotFoundException{
-        for(Moon moon : getMoons()){
-            if(identifier.equals(moon.getIdentifier())){
-                return moon;
-            }
-        }
+        Moon moon = Satellite.findByNumber(getMoons(), Satellite.numberAfter(identifier, getIdentifier() + "M"));
+        if(moon != null && identifier.equals(moon.getIdentifier()))
+            return moon;
         throw new CelestialBodyNotFoundException(identifier);
     }
 
@@ -77,12 +225,28 @@ public class Planet extends Satellite {
      * WARNING: It may not create the moon if it exceeds the max number.
      * @param moonRelativePosition The new moon's position relative to the planet.
      * @param moonMass The new moon's mass.
+     * @return True if the moon was created, false if the planet already has the max number of moons.
+     * @throws IllegalStateException If the planet was removed from its system.
      * @see Moon
      */
-    public void addNewMoon(Position moonRelativePosition, long moonMass) {
-        if(moons.size() < MAX_NUMBER_OF_MOONS) {
-            moons.add(new Moon(moonRelativePosition, moonMass, this));
+    public boolean addNewMoon(Position moonRelativePosition, long moonMass) {
+        checkNotDetached();
+        StampedLock lock = getLock();
+        long stamp = lock.writeLock();
+        try {
+            //The planet may have been removed by another writer meanwhile.
+            checkNotDetached();
+            if(moons.size() >= MAX_NUMBER_OF_MOONS)
+                return false;
             numberOfMoons++;
+            moons.insert(moons.size(), numberOfMoons, moonRelativePosition, moonMass);
+            aggregate(moonRelativePosition, moonMass, 1);
+            markModified();
+            Moon moon = moons.get(moons.size() - 1);
+            ((Star)getParent()).notifyListeners(listener -> listener.moonAdded(moon));
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
         }
     }
 
@@ -92,18 +256,69 @@ public class Planet extends Satellite {
      * @param relativeX The new moon's offset along the x-axis relative to the planet.
      * @param relativeY The new moon's offset along the y-axis relative to the planet.
      * @param moonMass The new moon's mass.
+     * @return True if the moon was created, false if the planet already has the max number of moons.
      * @see Moon
      */
-    public void addNewMoon(double relativeX, double relativeY, long moonMass) {
-        addNewMoon(new Position(relativeX, relativeY), moonMass);
+    public boolean addNewMoon(double relativeX, double relativeY, long moonMass) {
+        return addNewMoon(new Position(relativeX, relativeY), moonMass);
     }
 
     //Removes a moon given its instance.
     protected void removeOldMoon(Moon moonToDelete) {
-        moons.remove(moonToDelete);
+        StampedLock lock = getLock();
+        long stamp = lock.writeLock();
+        try {
+            int index = moons.indexOf(moonToDelete.getNumber());
+            if(index >= 0 && moonToDelete.getParent() == this) {
+                //The listeners receive the moon with its last position and mass.
+                moonToDelete.refresh(index, moons.getX(index), moons.getY(index), moons.getMass(index));
+                moons.delete(index);
+                recomputeAggregates();
+                markModified();
+                ((Star)getParent()).notifyListeners(listener -> listener.moonRemoved(moonToDelete));
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
     }
 
 
+    /**
+     * Removes at once the moons of the planet that satisfy a condition.
+     * The list of moons is compacted in a single pass, instead of shifting it once per removed moon.
+     * @param filter The condition of the moons to remove.
+     * @return The number of removed moons.
+     * @see Star#removeMoonsIf(Predicate)
+     */
+    public int removeMoonsIf(Predicate<? super Moon> filter) {
+        StampedLock lock = getLock();
+        long stamp = lock.writeLock();
+        try {
+            List<Moon> removed = compactMoons(filter);
+            if(!removed.isEmpty()) {
+                markModified();
+                ((Star)getParent()).notifyListeners(listener -> listener.moonsRemoved(this, removed));
+                removed.forEach(Moon::deletePlanetReference);
+            }
+            return removed.size();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    //Removes the moons satisfying the condition and returns them, still referencing the planet.
+    //The caller has to hold the write lock, mark the star as modified and notify the listeners.
+    //It touches only this planet, so the moons of different planets can be compacted in parallel.
+    List<Moon> compactMoons(Predicate<? super Moon> filter) {
+        List<Moon> removed = new ArrayList<>();
+        moons.removeIf(filter, removed::add);
+        if(!removed.isEmpty()) {
+            recomputeAggregates();
+            snapshot = null;
+        }
+        return removed;
+    }
+
     /**
      * Removes the planet from its solar system, and does it from the planet's instance.
      */
@@ -112,9 +327,9 @@ public class Planet extends Satellite {
         deleteStarReference();
     }
 
-    //Sets the reference to its star to null, used when deleting the planet.
+    //Replaces the reference to its star with the DETACHED one, used when deleting the planet.
     protected void deleteStarReference(){
-        parent = new Star(0,0,0);
+        parent = Star.DETACHED;
     }
 
 }
\ No newline at end of file
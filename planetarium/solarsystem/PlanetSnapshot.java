@@ -0,0 +1,164 @@
+package planetarium.solarsystem;
+
+/**
+ * Immutable copy of a planet and its moons at one version of the solar system.
+ * <p>
+ * A planet keeps its snapshot until one of its moons changes, so the snapshots of the whole system
+ * share the data of every planet that was not modified in between.
+ * The coordinates are relative to the parent, like in the live celestial bodies.
+ * @see SystemSnapshot
+ */
+public final class PlanetSnapshot {
+    private final String identifier;
+    private final int number;
+    private final double x;
+    private final double y;
+    private final long mass;
+    private final int moonCounter;
+
+    private final int[] moonNumbers;
+    private final double[] moonX;
+    private final double[] moonY;
+    private final long[] moonMass;
+
+    //Sums over the moons computed once, see MassKernel.
+    private final long moonsTotalMass;
+    private final double moonsWeightedX;
+    private final double moonsWeightedY;
+
+    //Builds a snapshot from its data, the arrays are kept and must not be modified afterwards.
+    PlanetSnapshot(String identifier, int number, double x, double y, long mass, int moonCounter,
+                   int[] moonNumbers, double[] moonX, double[] moonY, long[] moonMass) {
+        this.identifier = identifier;
+        this.number = number;
+        this.x = x;
+        this.y = y;
+        this.mass = mass;
+        this.moonCounter = moonCounter;
+        this.moonNumbers = moonNumbers;
+        this.moonX = moonX;
+        this.moonY = moonY;
+        this.moonMass = moonMass;
+
+        MassKernel.CompensatedSum weightedX = new MassKernel.CompensatedSum();
+        MassKernel.CompensatedSum weightedY = new MassKernel.CompensatedSum();
+        MassKernel.weightedSums(moonX, moonY, moonMass, moonNumbers.length, weightedX, weightedY);
+        moonsTotalMass = MassKernel.totalMass(moonMass, moonNumbers.length);
+        moonsWeightedX = weightedX.value();
+        moonsWeightedY = weightedY.value();
+    }
+
+    //Copies the planet and its moons, the caller has to hold the lock of the planet's star.
+    static PlanetSnapshot of(Planet planet) {
+        int size = planet.getMoons().size();
+        int[] moonNumbers = new int[size];
+        double[] moonX = new double[size];
+        double[] moonY = new double[size];
+        long[] moonMass = new long[size];
+        planet.getMoonTable().copyTo(moonNumbers, moonX, moonY, moonMass);
+
+        Position relative = planet.getRelativePosition();
+        return new PlanetSnapshot(planet.getIdentifier(), planet.getNumber(), relative.getX(), relative.getY(),
+                planet.getMass(), planet.getNumberOfMoons(), moonNumbers, moonX, moonY, moonMass);
+    }
+
+    /**
+     * @return The identifier of the planet.
+     */
+    public String getIdentifier() { return identifier; }
+
+    /**
+     * @return The progressive number of the planet around its star, the last part of the identifier.
+     */
+    public int getNumber() { return number; }
+
+    /**
+     * @return The offset along the x-axis relative to the star.
+     */
+    public double getX() { return x; }
+
+    /**
+     * @return The offset along the y-axis relative to the star.
+     */
+    public double getY() { return y; }
+
+    /**
+     * @return The mass of the planet.
+     */
+    public long getMass() { return mass; }
+
+    /**
+     * @return The distance from the planet to its star, equivalently its orbiting radius.
+     */
+    public double distanceToParent() {
+        return Math.sqrt( Math.pow(x, 2) + Math.pow(y, 2) );
+    }
+
+    /**
+     * @return The number of moons ever created around the planet, the next moon gets the following number.
+     */
+    public int getMoonCounter() { return moonCounter; }
+
+    /**
+     * @return The number of moons orbiting the planet.
+     */
+    public int getMoonCount() { return moonNumbers.length; }
+
+    /**
+     * @param index The index of the moon, between 0 and the number of moons.
+     * @return The identifier of the moon.
+     */
+    public String getMoonIdentifier(int index) { return identifier + "M" + moonNumbers[index]; }
+
+    /**
+     * @param index The index of the moon, between 0 and the number of moons.
+     * @return The progressive number of the moon around the planet.
+     */
+    public int getMoonNumber(int index) { return moonNumbers[index]; }
+
+    /**
+     * @param index The index of the moon, between 0 and the number of moons.
+     * @return The moon's offset along the x-axis relative to the planet.
+     */
+    public double getMoonX(int index) { return moonX[index]; }
+
+    /**
+     * @param index The index of the moon, between 0 and the number of moons.
+     * @return The moon's offset along the y-axis relative to the planet.
+     */
+    public double getMoonY(int index) { return moonY[index]; }
+
+    /**
+     * @param index The index of the moon, between 0 and the number of moons.
+     * @return The mass of the moon.
+     */
+    public long getMoonMass(int index) { return moonMass[index]; }
+
+    /**
+     * @param index The index of the moon, between 0 and the number of moons.
+     * @return The distance from the moon to the planet, equivalently its orbiting radius.
+     */
+    public double moonDistanceToParent(int index) {
+        return Math.sqrt( Math.pow(moonX[index], 2) + Math.pow(moonY[index], 2) );
+    }
+
+    /**
+     * @return The total mass of the moons of the planet.
+     */
+    public long getMoonsTotalMass() { return moonsTotalMass; }
+
+    /**
+     * @return The sum of mass·x of the moons, with x relative to the planet.
+     */
+    public double getMoonsWeightedX() { return moonsWeightedX; }
+
+    /**
+     * @return The sum of mass·y of the moons, with y relative to the planet.
+     */
+    public double getMoonsWeightedY() { return moonsWeightedY; }
+
+    @Override
+    public String toString() {
+        return String.format("[ PlanetSnapshot: %s\t\tmass: %d\t\tmoons: %d ]", identifier, mass, getMoonCount());
+    }
+}
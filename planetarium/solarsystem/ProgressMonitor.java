@@ -0,0 +1,92 @@
+package planetarium.solarsystem;
+
+import planetarium.solarsystem.error.OperationCancelledException;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress of a long operation, such as a collision scan, and the request to cancel it.
+ * <p>
+ * The operation advances the monitor and checks it for cancellation only at safe points, where the system
+ * is consistent, so cancelling never leaves a modification half done. Any other thread can read the
+ * progress and cancel the operation.
+ */
+public final class ProgressMonitor {
+    private final long startNanos = System.nanoTime();
+    private volatile long total = 0;
+    private final AtomicLong done = new AtomicLong();
+    private volatile boolean cancelled = false;
+
+    /**
+     * Setter method for the amount of work of the operation, in units of its choice.
+     * @param total The amount of work, 0 if unknown.
+     */
+    public void setTotal(long total) {
+        this.total = total;
+    }
+
+    /**
+     * @return The amount of work of the operation, 0 if unknown.
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * Records some work done by the operation.
+     * @param amount The work done since the previous call.
+     */
+    public void advance(long amount) {
+        done.addAndGet(amount);
+    }
+
+    /**
+     * @return The work done so far.
+     */
+    public long getDone() {
+        return done.get();
+    }
+
+    /**
+     * Asks the operation to stop at its next safe point.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * @return True if the operation was asked to stop.
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Called by the operation at its safe points.
+     * @throws OperationCancelledException If the operation was asked to stop.
+     */
+    public void checkCancelled() throws OperationCancelledException {
+        if(cancelled)
+            throw new OperationCancelledException();
+    }
+
+    /**
+     * @return The work done per second since the monitor was created.
+     */
+    public double getRate() {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        return seconds > 0 ? getDone() / seconds : 0;
+    }
+
+    /**
+     * Estimates the time left at the current rate.
+     * @return The seconds left, -1 if the total or the rate are not known yet.
+     */
+    public long getRemainingSeconds() {
+        double rate = getRate();
+        long total = getTotal();
+        if(total <= 0 || rate <= 0)
+            return -1;
+        return (long) Math.ceil(Math.max(total - getDone(), 0) / rate);
+    }
+}
@@ -0,0 +1,94 @@
+package planetarium.solarsystem;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Results of the expensive queries of a solar system, valid for a single version of the system.
+ * <p>
+ * Asking for a version different from the cached one discards every result, so a modification of the
+ * system invalidates them without any hook on the writers. The paths are kept in a map bounded by
+ * {@link #MAX_PATHS}, evicting the least recently used one.
+ * @see SolarSystem#getVersion()
+ */
+final class QueryCache {
+    /**
+     * Maximum number of paths cached per version.
+     * It can be configured with the system property planetarium.pathCacheSize, 1024 by default.
+     */
+    static final int MAX_PATHS = Integer.getInteger("planetarium.pathCacheSize", 1024);
+
+    private long version = -1;
+    private Position centerOfMass;
+    private Boolean collisions;
+    private SystemStatistics statistics;
+    private final Map<String, List<CelestialBody>> paths = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, List<CelestialBody>> eldest) {
+            return size() > MAX_PATHS;
+        }
+    };
+
+    //Discards the results of a version older than the given one, returns false if the given one is older.
+    private boolean moveTo(long newVersion) {
+        if(newVersion < version)
+            return false;
+        if(newVersion > version) {
+            version = newVersion;
+            centerOfMass = null;
+            collisions = null;
+            statistics = null;
+            paths.clear();
+        }
+        return true;
+    }
+
+    synchronized Position getCenterOfMass(long version) {
+        return moveTo(version) && centerOfMass != null ? copyOf(centerOfMass) : null;
+    }
+
+    synchronized void putCenterOfMass(long version, Position centerOfMass) {
+        if(moveTo(version))
+            this.centerOfMass = copyOf(centerOfMass);
+    }
+
+    synchronized Boolean getCollisions(long version) {
+        return moveTo(version) ? collisions : null;
+    }
+
+    synchronized void putCollisions(long version, boolean collisions) {
+        if(moveTo(version))
+            this.collisions = collisions;
+    }
+
+    //The statistics are immutable, so they are shared.
+    synchronized SystemStatistics getStatistics(long version) {
+        return moveTo(version) ? statistics : null;
+    }
+
+    synchronized void putStatistics(long version, SystemStatistics statistics) {
+        if(moveTo(version))
+            this.statistics = statistics;
+    }
+
+    //The paths are stored unmodifiable, callers get their own copy.
+    synchronized List<CelestialBody> getPath(long version, String startIdentifier, String endIdentifier) {
+        return moveTo(version) ? paths.get(pathKey(startIdentifier, endIdentifier)) : null;
+    }
+
+    synchronized void putPath(long version, String startIdentifier, String endIdentifier, List<CelestialBody> path) {
+        if(moveTo(version))
+            paths.put(pathKey(startIdentifier, endIdentifier), List.copyOf(path));
+    }
+
+    //Identifiers never contain a space, so it separates the two.
+    private static String pathKey(String startIdentifier, String endIdentifier) {
+        return startIdentifier + ' ' + endIdentifier;
+    }
+
+    //Positions are mutable, so the cache never shares its own.
+    private static Position copyOf(Position position) {
+        return new Position(position.getX(), position.getY());
+    }
+}
@@ -1,17 +1,40 @@
 package planetarium.solarsystem;
 
+import java.util.List;
+
 public abstract class Satellite extends CelestialBody{
 
     protected CelestialBody parent;
 
+    //Progressive number of the satellite around its parent, the digits at the end of the identifier.
+    private final int number;
+
+    //Absolute position computed at a move epoch of a star.
+    private static final class CachedPosition {
+        private final Star star;
+        private final long epoch;
+        private final double x;
+        private final double y;
+
+        private CachedPosition(Star star, long epoch, double x, double y) {
+            this.star = star;
+            this.epoch = epoch;
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    //Valid while the star of the satellite is the same and no body of its system moved.
+    private volatile CachedPosition cachedPosition;
+
     public Satellite(Position position, long mass, String identifier, CelestialBody parent) {
         super(position, mass, identifier);
         this.parent = parent;
+        this.number = parseNumber(identifier);
     }
 
     public Satellite(double x, double y, long mass, String identifier, CelestialBody parent) {
-        super(x, y, mass, identifier);
-        this.parent = parent;
+        this(new Position(x, y), mass, identifier, parent);
     }
 
     /**
@@ -23,11 +46,105 @@ public abstract class Satellite extends CelestialBody{
 
     public CelestialBody getParent() { return parent; }
 
+    //The star at the root of the satellite's system.
+    protected Star getStar() {
+        return (parent instanceof Satellite satellite ? satellite.getStar() : (Star) parent);
+    }
+
+    //Absolute position of the satellite, reusing the last one computed if nothing moved since.
+    protected Position cachedAbsolutePosition() {
+        Star star = getStar();
+        long epoch = star.getMoveEpoch();
+        CachedPosition cached = cachedPosition;
+        if(cached == null || cached.star != star || cached.epoch != epoch) {
+            Position absolutePosition = getRelativePosition();
+            absolutePosition.increase(getParent().getAbsolutePosition());
+            cached = new CachedPosition(star, epoch, absolutePosition.getX(), absolutePosition.getY());
+            cachedPosition = cached;
+        }
+        return new Position(cached.x, cached.y);
+    }
+
+    //Progressive number of the satellite around its parent, see the number field.
+    protected int getNumber() {
+        return number;
+    }
+
+    private static int parseNumber(String identifier) {
+        int start = identifier.length();
+        while(start > 0 && Character.isDigit(identifier.charAt(start - 1)))
+            start--;
+        return Integer.parseInt(identifier.substring(start));
+    }
+
+    //Number in an identifier made of the given prefix followed only by digits, -1 if it is not like that.
+    protected static int numberAfter(String identifier, String prefix) {
+        int digits = identifier.length() - prefix.length();
+        if(!identifier.startsWith(prefix) || digits < 1 || digits > 9)
+            return -1;
+        for(int i = prefix.length(); i < identifier.length(); i++) {
+            if(!Character.isDigit(identifier.charAt(i)))
+                return -1;
+        }
+        return Integer.parseInt(identifier.substring(prefix.length()));
+    }
+
+    //Searches a satellite by number in a list sorted by number, as the lists of planets and moons are
+    //since satellites are appended with a number greater than the previous ones, or restored in place.
+    //Returns null if no satellite has the number.
+    protected static <T extends Satellite> T findByNumber(List<T> satellites, int number) {
+        //The moons are searched among their records, only the one found becomes an instance.
+        int index = indexOfNumber(satellites, number);
+        return index < 0 ? null : satellites.get(index);
+    }
+
+    //Position of a satellite in a list sorted by number, -1 if no satellite has the number.
+    protected static int indexOfNumber(List<? extends Satellite> satellites, int number) {
+        if(satellites instanceof MoonTable moons)
+            return moons.indexOf(number);
+        int low = 0;
+        int high = satellites.size() - 1;
+        while(low <= high) {
+            int middle = (low + high) >>> 1;
+            int middleNumber = satellites.get(middle).getNumber();
+            if(middleNumber < number)
+                low = middle + 1;
+            else if(middleNumber > number)
+                high = middle - 1;
+            else
+                return middle;
+        }
+        return -1;
+    }
+
+    //Position where a satellite with the given number goes in a list sorted by number, which is the
+    //position of the first satellite with a number not smaller than it.
+    protected static int insertionIndex(List<? extends Satellite> satellites, int number) {
+        if(satellites instanceof MoonTable moons)
+            return moons.insertionIndex(number);
+        int low = 0;
+        int high = satellites.size();
+        if(high == 0 || satellites.get(high - 1).getNumber() < number)
+            return high;
+        while(low < high) {
+            int middle = (low + high) >>> 1;
+            if(satellites.get(middle).getNumber() < number)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
     /**
      * @return The distance from the satellite to its parent, equivalently its orbiting radius..
      */
     public double distanceToParent() {
-        Position relative = getRelativePosition();
+        return radiusOf(getRelativePosition());
+    }
+
+    //Orbiting radius of a position relative to the parent.
+    static double radiusOf(Position relative) {
         return Math.sqrt( Math.pow(relative.getX(), 2) + Math.pow(relative.getY(), 2) );
     }
 }
@@ -0,0 +1,465 @@
+package planetarium.solarsystem;
+
+import planetarium.solarsystem.error.CelestialBodyNotFoundException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A solar system partitioned across several {@link ShardWorker} processes on the same machine.
+ * <p>
+ * The coordinator keeps only the star. Every planet, together with its moons, lives in the shard chosen
+ * by its number, so a body is found by sending a single request to that shard. The center of mass and
+ * the collisions are scatter-gather queries: the request is sent to every shard at once, then the
+ * partial answers are merged.
+ * <ul>
+ *     <li>The center of mass merges the total mass and the sums of mass·x and mass·y of every shard.</li>
+ *     <li>Two planets of different shards can collide, directly or through their moons, only if the
+ *     annuli swept around the star by the planets with their moons overlap (see {@link CollisionIndex}).
+ *     Each shard sends its own result and the sorted radii of its annuli, which are merged in a single
+ *     pass.</li>
+ * </ul>
+ * Additions are pipelined: their answers are read only before the next query, so loading a large system
+ * is not slowed down by a round trip per body.
+ * <p>
+ * The methods can be called from any thread, one request at a time.
+ * @see ShardProtocol
+ */
+public final class ShardCoordinator implements Closeable {
+    //Additions sent to a shard before their answers are read, small enough to fit in the socket buffers.
+    private static final int MAX_PENDING_ANSWERS = 4096;
+    //Size of the answer to an addition: status and number.
+    private static final int ADDITION_ANSWER_SIZE = 1 + 4;
+
+    /**
+     * A celestial body found in a sharded system.
+     */
+    public static final class Body {
+        private final String type;
+        private final String identifier;
+        private final Position position;
+        private final long mass;
+
+        private Body(String type, String identifier, Position position, long mass) {
+            this.type = type;
+            this.identifier = identifier;
+            this.position = position;
+            this.mass = mass;
+        }
+
+        /**
+         * @return The identifier of the body.
+         */
+        public String getIdentifier() { return identifier; }
+
+        /**
+         * @return The absolute position of the body.
+         */
+        public Position getAbsolutePosition() { return new Position(position.getX(), position.getY()); }
+
+        /**
+         * @return The mass of the body.
+         */
+        public long getMass() { return mass; }
+
+        @Override
+        public String toString() {
+            return String.format("[ %s: %s\t\tmass: %d\t\tposition: %s ]", type, identifier, mass, position);
+        }
+    }
+
+    //Connection to a worker process.
+    private static final class Shard {
+        private final Process process;
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+        //Additions whose answer was not read yet.
+        private int pendingAnswers = 0;
+
+        private Shard(Process process, Socket socket) throws IOException {
+            this.process = process;
+            this.socket = socket;
+            socket.setTcpNoDelay(true);
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+        }
+
+        //Reads the answers of the pipelined additions, which are not reported.
+        private void drain() throws IOException {
+            if(pendingAnswers == 0)
+                return;
+            out.flush();
+            in.skipNBytes((long) pendingAnswers * ADDITION_ANSWER_SIZE);
+            pendingAnswers = 0;
+        }
+
+        //Sends a request whose answer is read later, after all the shards received theirs.
+        private DataOutputStream request(byte opcode) throws IOException {
+            drain();
+            out.writeByte(opcode);
+            return out;
+        }
+
+        //Sends an addition, reading the pending answers when too many accumulated.
+        private DataOutputStream addition(byte opcode) throws IOException {
+            if(pendingAnswers == MAX_PENDING_ANSWERS)
+                drain();
+            pendingAnswers++;
+            out.writeByte(opcode);
+            return out;
+        }
+
+        //Returns the stream of the answer to the last request.
+        private DataInputStream answer() throws IOException {
+            out.flush();
+            return in;
+        }
+    }
+
+    private final SolarSystem system;
+    private final List<Shard> shards;
+    private int numberOfPlanets = 0;
+
+    private ShardCoordinator(SolarSystem system, List<Shard> shards) {
+        this.system = system;
+        this.shards = shards;
+    }
+
+    /**
+     * Starts the workers of a sharded solar system and connects to them.
+     * <p>
+     * The workers run on the same Java runtime and class path as the current process, and receive the
+     * system properties starting with "planetarium.", such as the maximum number of moons.
+     * @param numberOfShards The number of worker processes.
+     * @param starPosition The position of the system's star relative to an arbitrary origin.
+     * @param starMass The mass of the star.
+     * @return The coordinator of the new system, to be closed to stop the workers.
+     * @throws IOException If a worker cannot be started or connected.
+     * @throws IllegalArgumentException If the number of shards is not positive.
+     */
+    public static ShardCoordinator launch(int numberOfShards, Position starPosition, long starMass) throws IOException {
+        if(numberOfShards <= 0)
+            throw new IllegalArgumentException("The number of shards has to be positive");
+
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        for(String property : System.getProperties().stringPropertyNames()) {
+            if(property.startsWith("planetarium."))
+                command.add("-D" + property + "=" + System.getProperty(property));
+        }
+        command.add(ShardWorker.class.getName());
+
+        List<Process> processes = new ArrayList<>();
+        List<Shard> shards = new ArrayList<>();
+        try {
+            //Started all together, so they initialize in parallel.
+            for(int i = 0; i < numberOfShards; i++)
+                processes.add(new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start());
+            for(Process process : processes)
+                shards.add(new Shard(process, new Socket(InetAddress.getLoopbackAddress(), readPort(process))));
+        } catch(IOException e) {
+            processes.forEach(Process::destroy);
+            throw e;
+        }
+        return new ShardCoordinator(new SolarSystem(starPosition, starMass), shards);
+    }
+
+    //Port announced by a worker on the first line of its output.
+    private static int readPort(Process process) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        String line = reader.readLine();
+        if(line == null || !line.startsWith(ShardProtocol.PORT_ANNOUNCEMENT))
+            throw new IOException("Shard worker did not start: " + line);
+        return Integer.parseInt(line.substring(ShardProtocol.PORT_ANNOUNCEMENT.length()));
+    }
+
+    /**
+     * @return The number of worker processes.
+     */
+    public int getNumberOfShards() {
+        return shards.size();
+    }
+
+    /**
+     * @return The star of the system, which has no planets in the coordinator.
+     */
+    public Star getStar() {
+        return system.getStar();
+    }
+
+    //Shard holding a planet and its moons.
+    private Shard shardOf(int planetNumber) {
+        return shards.get((planetNumber - 1) % shards.size());
+    }
+
+    /**
+     * Creates a new planet orbiting the star, in the shard chosen by its number.
+     * @param relativeX The new planet's offset along the x-axis relative to the star.
+     * @param relativeY The new planet's offset along the y-axis relative to the star.
+     * @param planetMass The new planet's mass.
+     * @return The identifier of the new planet.
+     * @throws IOException If the shard cannot be reached.
+     */
+    public synchronized String addNewPlanet(double relativeX, double relativeY, long planetMass) throws IOException {
+        int number = numberOfPlanets + 1;
+        DataOutputStream out = shardOf(number).addition(ShardProtocol.ADD_PLANET);
+        out.writeInt(number);
+        out.writeDouble(relativeX);
+        out.writeDouble(relativeY);
+        out.writeLong(planetMass);
+        numberOfPlanets = number;
+        return getStar().getIdentifier() + "P" + number;
+    }
+
+    /**
+     * Creates a new moon orbiting a planet.
+     * WARNING: Like {@link Planet#addNewMoon(double, double, long)}, it may not create the moon if it exceeds
+     * the max number, or if the planet was removed.
+     * @param planetIdentifier The identifier of the planet.
+     * @param relativeX The new moon's offset along the x-axis relative to the planet.
+     * @param relativeY The new moon's offset along the y-axis relative to the planet.
+     * @param moonMass The new moon's mass.
+     * @throws CelestialBodyNotFoundException If the identifier is not the one of a planet of the system.
+     * @throws IOException If the shard cannot be reached.
+     */
+    public synchronized void addNewMoon(String planetIdentifier, double relativeX, double relativeY, long moonMass)
+            throws CelestialBodyNotFoundException, IOException {
+        int number = planetNumber(planetIdentifier);
+        DataOutputStream out = shardOf(number).addition(ShardProtocol.ADD_MOON);
+        out.writeInt(number);
+        out.writeDouble(relativeX);
+        out.writeDouble(relativeY);
+        out.writeLong(moonMass);
+    }
+
+    //Number of a planet created by the coordinator, given its identifier.
+    private int planetNumber(String identifier) throws CelestialBodyNotFoundException {
+        int number = Satellite.numberAfter(identifier, getStar().getIdentifier() + "P");
+        if(number < 1 || number > numberOfPlanets)
+            throw new CelestialBodyNotFoundException(identifier);
+        return number;
+    }
+
+    /**
+     * Removes a planet, together with its moons, or a moon from the system.
+     * @param identifier The identifier of the planet or moon.
+     * @throws CelestialBodyNotFoundException If the body is not in the system.
+     * @throws IOException If the shard cannot be reached.
+     */
+    public synchronized void removeCelestialBody(String identifier) throws CelestialBodyNotFoundException, IOException {
+        int[] numbers = satelliteNumbers(identifier);
+        Shard shard = shardOf(numbers[0]);
+        DataOutputStream out = shard.request(ShardProtocol.REMOVE);
+        out.writeInt(numbers[0]);
+        out.writeInt(numbers[1]);
+        if(shard.answer().readByte() != ShardProtocol.OK)
+            throw new CelestialBodyNotFoundException(identifier);
+    }
+
+    /**
+     * Removes all planets and moons of the system, in every shard.
+     * @throws IOException If a shard cannot be reached.
+     */
+    public synchronized void removeAllPlanets() throws IOException {
+        for(Shard shard : shards)
+            shard.request(ShardProtocol.CLEAR);
+        for(Shard shard : shards)
+            shard.answer().readByte();
+    }
+
+    //Planet and moon numbers of the identifier of a satellite, moon number 0 for a planet.
+    private int[] satelliteNumbers(String identifier) throws CelestialBodyNotFoundException {
+        //A moon identifier is its planet identifier followed by "M" and the moon number.
+        int moonSeparator = identifier.lastIndexOf('M');
+        if(moonSeparator <= 0)
+            return new int[] { planetNumber(identifier), 0 };
+
+        String planetIdentifier = identifier.substring(0, moonSeparator);
+        int moonNumber = Satellite.numberAfter(identifier, planetIdentifier + "M");
+        if(moonNumber < 1)
+            throw new CelestialBodyNotFoundException(identifier);
+        return new int[] { planetNumber(planetIdentifier), moonNumber };
+    }
+
+    /**
+     * Finds a celestial body (star, planet or moon) given its identifier, asking only the shard that
+     * holds it.
+     * @param identifier The celestial body unique identifier.
+     * @return The celestial body.
+     * @throws CelestialBodyNotFoundException If the celestial body is not in the system.
+     * @throws IOException If the shard cannot be reached.
+     */
+    public synchronized Body findCelestialBody(String identifier) throws CelestialBodyNotFoundException, IOException {
+        Star star = getStar();
+        if(identifier.equals(star.getIdentifier()))
+            return new Body("Star", identifier, star.getAbsolutePosition(), star.getMass());
+
+        int[] numbers = satelliteNumbers(identifier);
+        Shard shard = shardOf(numbers[0]);
+        DataOutputStream out = shard.request(ShardProtocol.FIND);
+        out.writeInt(numbers[0]);
+        out.writeInt(numbers[1]);
+
+        DataInputStream in = shard.answer();
+        if(in.readByte() != ShardProtocol.OK)
+            throw new CelestialBodyNotFoundException(identifier);
+        Position position = new Position(in.readDouble(), in.readDouble());
+        position.increase(star.getAbsolutePosition());
+        return new Body(numbers[1] == 0 ? "Planet" : "Moon", identifier, position, in.readLong());
+    }
+
+    /**
+     * Counts the bodies of the system.
+     * @return The number of bodies: the star, the planets and their moons.
+     * @throws IOException If a shard cannot be reached.
+     */
+    public synchronized long getBodyCount() throws IOException {
+        for(Shard shard : shards)
+            shard.request(ShardProtocol.MASS);
+        long bodies = 1;
+        for(Shard shard : shards) {
+            DataInputStream in = shard.answer();
+            in.readByte();
+            bodies += in.readLong();
+            in.skipNBytes(8 + 8 + 8);
+        }
+        return bodies;
+    }
+
+    /**
+     * Calculates the center of mass of the system from the partial sums of every shard.
+     * @return The position of the center of mass of the system.
+     * @throws IOException If a shard cannot be reached.
+     * @see SolarSystem#getCenterOfMass()
+     */
+    public synchronized Position getCenterOfMass() throws IOException {
+        for(Shard shard : shards)
+            shard.request(ShardProtocol.MASS);
+
+        Star star = getStar();
+        long systemMass = star.getMass();
+        MassKernel.CompensatedSum weightedX = new MassKernel.CompensatedSum();
+        MassKernel.CompensatedSum weightedY = new MassKernel.CompensatedSum();
+        for(Shard shard : shards) {
+            DataInputStream in = shard.answer();
+            in.readByte();
+            in.readLong();
+            systemMass += in.readLong();
+            weightedX.add(in.readDouble());
+            weightedY.add(in.readDouble());
+        }
+
+        //The shards sum positions relative to the star, which is added back at the end.
+        Position centerOfMass = new Position(weightedX.value(), weightedY.value()).multiplyBy(1.0/systemMass);
+        centerOfMass.increase(star.getAbsolutePosition());
+        return centerOfMass;
+    }
+
+    /**
+     * Checks for all types of possible collisions in the system, return true if found.
+     * A shard finds the collisions between its own bodies, the collisions between bodies of different
+     * shards are found by merging the annuli of the planets.
+     * @return True if there are possible collisions, false if not.
+     * @throws IOException If a shard cannot be reached.
+     * @see SolarSystem#detectCollisions()
+     */
+    public synchronized boolean detectCollisions() throws IOException {
+        for(Shard shard : shards)
+            shard.request(ShardProtocol.COLLISIONS);
+
+        boolean collisions = false;
+        double[][] lows = new double[shards.size()][];
+        double[][] highs = new double[shards.size()][];
+        for(int i = 0; i < shards.size(); i++) {
+            DataInputStream in = shards.get(i).answer();
+            in.readByte();
+            collisions |= in.readBoolean();
+            lows[i] = ShardProtocol.readRadii(in);
+            highs[i] = ShardProtocol.readRadii(in);
+        }
+        return collisions || overlap(lows, highs);
+    }
+
+    //Checks if two annuli overlap, given the sorted inner and outer radii of the annuli of every shard.
+    //The radii are visited in order, counting the annuli containing the current one: as soon as two do,
+    //they overlap. At equal radii the inner one comes first, since annuli touching at a radius overlap.
+    private static boolean overlap(double[][] lows, double[][] highs) {
+        int[] nextLow = new int[lows.length];
+        int[] nextHigh = new int[highs.length];
+        int open = 0;
+        while(true) {
+            int low = smallestHead(lows, nextLow);
+            if(low < 0)
+                return false;
+            int high = smallestHead(highs, nextHigh);
+            if(lows[low][nextLow[low]] <= highs[high][nextHigh[high]]) {
+                nextLow[low]++;
+                if(++open > 1)
+                    return true;
+            } else {
+                nextHigh[high]++;
+                open--;
+            }
+        }
+    }
+
+    //Array whose next value is the smallest, -1 if all the arrays were visited.
+    private static int smallestHead(double[][] arrays, int[] next) {
+        int smallest = -1;
+        for(int i = 0; i < arrays.length; i++) {
+            if(next[i] < arrays[i].length && (smallest < 0 || arrays[i][next[i]] < arrays[smallest][next[smallest]]))
+                smallest = i;
+        }
+        return smallest;
+    }
+
+    /**
+     * Shuts the workers down, their bodies are lost.
+     * @throws IOException If a worker cannot be reached, it is destroyed anyway.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        IOException failure = null;
+        for(Shard shard : shards) {
+            try {
+                shard.request(ShardProtocol.SHUTDOWN);
+                shard.answer().readByte();
+            } catch(IOException e) {
+                failure = e;
+            } finally {
+                try {
+                    shard.socket.close();
+                } catch(IOException e) {
+                    failure = e;
+                }
+            }
+        }
+        for(Shard shard : shards) {
+            try {
+                if(!shard.process.waitFor(1, TimeUnit.SECONDS))
+                    shard.process.destroy();
+            } catch(InterruptedException e) {
+                shard.process.destroy();
+                Thread.currentThread().interrupt();
+            }
+        }
+        if(failure != null)
+            throw failure;
+    }
+}
@@ -0,0 +1,69 @@
+package planetarium.solarsystem;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Binary protocol between a {@link ShardCoordinator} and its {@link ShardWorker}s.
+ * <p>
+ * Every request is an opcode byte followed by fixed size fields in big-endian order, every answer starts
+ * with a status byte. Bodies are addressed by planet and moon number (0 for the planet itself), never by
+ * identifier, and positions are relative to the star, which the workers keep at the origin.
+ * The answers of the additions have the same size, so the coordinator can send many of them before
+ * reading their answers.
+ * <pre>
+ *  ADD_PLANET    number x y mass     -> OK number
+ *  ADD_MOON      planet x y mass     -> OK moon | NOT_FOUND 0 | FULL 0
+ *  REMOVE        planet moon         -> OK | NOT_FOUND
+ *  CLEAR                             -> OK
+ *  FIND          planet moon         -> OK x y mass | NOT_FOUND
+ *  MASS                              -> OK bodies mass weightedX weightedY
+ *  COLLISIONS                        -> OK local count low*count count high*count
+ *  SHUTDOWN                          -> OK, then the worker exits
+ * </pre>
+ */
+final class ShardProtocol {
+    static final byte ADD_PLANET = 1;
+    static final byte ADD_MOON = 2;
+    static final byte REMOVE = 3;
+    static final byte CLEAR = 4;
+    static final byte FIND = 5;
+    static final byte MASS = 6;
+    static final byte COLLISIONS = 7;
+    static final byte SHUTDOWN = 8;
+
+    static final byte OK = 0;
+    static final byte NOT_FOUND = 1;
+    static final byte FULL = 2;
+
+    //First line printed by a worker on its standard output, followed by the port it listens on.
+    static final String PORT_ANNOUNCEMENT = "PORT ";
+
+    private ShardProtocol() {}
+
+    /**
+     * Writes a sorted array of radii: the inner or the outer radii of the annuli of a shard.
+     * @param out The stream.
+     * @param radii The radii, in ascending order.
+     * @throws IOException If the stream cannot be written.
+     */
+    static void writeRadii(DataOutputStream out, double[] radii) throws IOException {
+        out.writeInt(radii.length);
+        for(double radius : radii)
+            out.writeDouble(radius);
+    }
+
+    /**
+     * Reads an array of radii written by {@link #writeRadii}.
+     * @param in The stream.
+     * @return The radii, in the order they were written.
+     * @throws IOException If the stream cannot be read.
+     */
+    static double[] readRadii(DataInputStream in) throws IOException {
+        double[] radii = new double[in.readInt()];
+        for(int i = 0; i < radii.length; i++)
+            radii[i] = in.readDouble();
+        return radii;
+    }
+}
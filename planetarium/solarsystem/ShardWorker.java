@@ -0,0 +1,178 @@
+package planetarium.solarsystem;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+
+/**
+ * Process holding one shard of a solar system: some planets together with their moons.
+ * <p>
+ * The worker keeps its planets in an ordinary {@link SolarSystem} whose star is at the origin, so every
+ * position it stores or returns is relative to the real star. Planets keep the number given by the
+ * coordinator and moons are numbered by the worker, like in a single process.
+ * <p>
+ * It listens on an ephemeral localhost port, announces it on the first line of its standard output,
+ * serves a single coordinator with {@link ShardProtocol} and exits when the connection is closed.
+ * @see ShardCoordinator
+ */
+public final class ShardWorker {
+    private final SolarSystem system = new SolarSystem(0, 0, 1);
+
+    private ShardWorker() {}
+
+    /**
+     * Starts a worker, usually launched by {@link ShardCoordinator#launch(int, Position, long)}.
+     * @param args Unused.
+     * @throws IOException If the worker cannot listen or the connection fails.
+     */
+    public static void main(String[] args) throws IOException {
+        try(ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            System.out.println(ShardProtocol.PORT_ANNOUNCEMENT + serverSocket.getLocalPort());
+            System.out.flush();
+            try(Socket socket = serverSocket.accept()) {
+                socket.setTcpNoDelay(true);
+                new ShardWorker().serve(new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16)),
+                        new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16)));
+            }
+        }
+    }
+
+    //Answers the requests until the coordinator shuts the worker down or disconnects.
+    private void serve(DataInputStream in, DataOutputStream out) throws IOException {
+        while(true) {
+            int request;
+            try {
+                request = in.readByte();
+            } catch(EOFException closed) {
+                return;
+            }
+
+            if(request == ShardProtocol.SHUTDOWN) {
+                out.writeByte(ShardProtocol.OK);
+                out.flush();
+                return;
+            }
+            answer(request, in, out);
+            //Flushes once per batch of pipelined requests.
+            if(in.available() == 0)
+                out.flush();
+        }
+    }
+
+    //Executes a single request and writes its answer.
+    private void answer(int request, DataInputStream in, DataOutputStream out) throws IOException {
+        Star star = system.getStar();
+        switch(request) {
+            case ShardProtocol.ADD_PLANET -> {
+                int number = in.readInt();
+                star.restorePlanet(number, new Position(in.readDouble(), in.readDouble()), in.readLong());
+                out.writeByte(ShardProtocol.OK);
+                out.writeInt(number);
+            }
+            case ShardProtocol.ADD_MOON -> {
+                Planet planet = Satellite.findByNumber(star.getPlanets(), in.readInt());
+                Position position = new Position(in.readDouble(), in.readDouble());
+                long mass = in.readLong();
+                int moons = (planet == null ? 0 : planet.getMoons().size());
+                if(planet != null)
+                    planet.addNewMoon(position, mass);
+
+                if(planet == null) {
+                    out.writeByte(ShardProtocol.NOT_FOUND);
+                    out.writeInt(0);
+                } else if(planet.getMoons().size() == moons) {
+                    out.writeByte(ShardProtocol.FULL);
+                    out.writeInt(0);
+                } else {
+                    out.writeByte(ShardProtocol.OK);
+                    out.writeInt(planet.getNumberOfMoons());
+                }
+            }
+            case ShardProtocol.REMOVE -> {
+                Satellite body = find(in.readInt(), in.readInt());
+                if(body instanceof Planet planet)
+                    planet.removeFromSystem();
+                else if(body instanceof Moon moon)
+                    moon.removeFromSystem();
+                out.writeByte(body == null ? ShardProtocol.NOT_FOUND : ShardProtocol.OK);
+            }
+            case ShardProtocol.CLEAR -> {
+                star.removeAllPlanets();
+                out.writeByte(ShardProtocol.OK);
+            }
+            case ShardProtocol.FIND -> {
+                Satellite body = find(in.readInt(), in.readInt());
+                if(body == null) {
+                    out.writeByte(ShardProtocol.NOT_FOUND);
+                } else {
+                    Position position = body.getAbsolutePosition();
+                    out.writeByte(ShardProtocol.OK);
+                    out.writeDouble(position.getX());
+                    out.writeDouble(position.getY());
+                    out.writeLong(body.getMass());
+                }
+            }
+            case ShardProtocol.MASS -> writeMass(system.snapshot(), out);
+            case ShardProtocol.COLLISIONS -> writeCollisions(system.snapshot(), system.detectCollisions(), out);
+            default -> throw new IOException("Unexpected request " + request);
+        }
+    }
+
+    //Planet or moon (number 0 for the planet itself) of the shard, null if it is not here.
+    private Satellite find(int planetNumber, int moonNumber) {
+        Planet planet = Satellite.findByNumber(system.getStar().getPlanets(), planetNumber);
+        if(planet == null || moonNumber == 0)
+            return planet;
+        return Satellite.findByNumber(planet.getMoons(), moonNumber);
+    }
+
+    //Partial center of mass of the shard: its bodies, their mass and the sums of mass·x and mass·y.
+    private static void writeMass(SystemSnapshot snapshot, DataOutputStream out) throws IOException {
+        long mass = 0;
+        MassKernel.CompensatedSum weightedX = new MassKernel.CompensatedSum();
+        MassKernel.CompensatedSum weightedY = new MassKernel.CompensatedSum();
+        for(PlanetSnapshot planet : snapshot.getPlanets()) {
+            long subsystemMass = planet.getMass() + planet.getMoonsTotalMass();
+            mass += subsystemMass;
+            weightedX.add(planet.getX() * subsystemMass + planet.getMoonsWeightedX());
+            weightedY.add(planet.getY() * subsystemMass + planet.getMoonsWeightedY());
+        }
+
+        out.writeByte(ShardProtocol.OK);
+        out.writeLong(snapshot.getBodyCount() - 1);
+        out.writeLong(mass);
+        out.writeDouble(weightedX.value());
+        out.writeDouble(weightedY.value());
+    }
+
+    //Collisions within the shard, and the annulus swept by every planet with its moons.
+    //The inner and outer radii are sent sorted separately: that is enough to find overlapping annuli.
+    private static void writeCollisions(SystemSnapshot snapshot, boolean local, DataOutputStream out)
+            throws IOException {
+        int count = snapshot.getPlanets().size();
+        double[] low = new double[count];
+        double[] high = new double[count];
+        for(int i = 0; i < count; i++) {
+            PlanetSnapshot planet = snapshot.getPlanets().get(i);
+            double reach = 0;
+            for(int moon = 0; moon < planet.getMoonCount(); moon++)
+                reach = Math.max(reach, planet.moonDistanceToParent(moon));
+            low[i] = planet.distanceToParent() - reach;
+            high[i] = planet.distanceToParent() + reach;
+        }
+        Arrays.sort(low);
+        Arrays.sort(high);
+
+        out.writeByte(ShardProtocol.OK);
+        out.writeBoolean(local);
+        ShardProtocol.writeRadii(out, low);
+        ShardProtocol.writeRadii(out, high);
+    }
+}
@@ -1,17 +1,59 @@
 package planetarium.solarsystem;
 
 import planetarium.solarsystem.error.CelestialBodyNotFoundException;
-
+import planetarium.solarsystem.error.OperationCancelledException;
+import planetarium.solarsystem.event.CenterOfMassEvent;
+import planetarium.solarsystem.event.LookupEvent;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Function;
 
 /**
  *  Represent a solar system : a star, his planets and the planets moons.
+ * <p>
+ * The queries of the system (lookup, center of mass, collisions and path) can be called from any thread
+ * while other threads add and remove planets and moons: they run first as optimistic reads that never
+ * block, and only if a writer interfered they run again under the read lock of the star.
+ * The results of center of mass, collisions and path are reused until the next modification.
+ * <p>
+ * The moons, which are most of the bodies, are stored outside the Java heap in a {@link BodyArena}.
  */
 public class SolarSystem {
     private final Star star;
+    private final OperationMetrics metrics;
+    private final QueryCache cache = new QueryCache();
+    //Created by the first call to getIndexes().
+    private volatile SystemIndexes indexes;
+    //Created by the first call to getCollisionIndex().
+    private volatile CollisionIndex collisionIndex;
+    //Created by the first call to getChangeFeed().
+    private volatile ChangeFeed changeFeed;
+    //Graph of the last range asked for, built again when the system or the range change.
+    private volatile TransferGraph transferGraph;
+
+    //A read-only operation on the system, may be run more than once.
+    private interface Read<T> {
+        T run() throws CelestialBodyNotFoundException;
+    }
+
+    //A result together with the version of the system it was computed on.
+    private static final class Versioned<T> {
+        private final long version;
+        private final T value;
+
+        private Versioned(long version, T value) {
+            this.version = version;
+            this.value = value;
+        }
+    }
 
     /**
      * SolarSystem constructor.
@@ -23,7 +65,27 @@ public class SolarSystem {
      * @see Position
      */
     public SolarSystem(Position starPosition, long starMass) {
-        star = new Star(starPosition, starMass);
+        this(new Star(starPosition, starMass));
+    }
+
+    /**
+     * SolarSystem constructor.
+     * The system is instantiated with its star's parameters and keeps its moons in the given arena, for
+     * example in a file mapped in memory.
+     *
+     * @param starPosition The position of the system's star relative to an arbitrary origin.
+     * @param starMass The mass of the star.
+     * @param arena The memory of the moons.
+     * @see BodyArena
+     */
+    public SolarSystem(Position starPosition, long starMass, BodyArena arena) {
+        this(new Star(starPosition, starMass, arena, 0));
+    }
+
+    //Creates the system of a star, which may restore the identifier of a saved one.
+    SolarSystem(Star star) {
+        this.star = star;
+        metrics = new OperationMetrics(star);
     }
 
     /**
@@ -50,59 +112,188 @@ public class SolarSystem {
     }
 
     /**
-     * Calculates the center of mass of the system.
-     * @return The position of the  center of mass of the system
-     * @see Position
+     * Getter method for the version of the system, which grows with every modification of its bodies.
+     * Two calls returning the same version see the same system.
+     * @return The current version.
      */
-    public Position getCenterOfMass() {
-        long systemMass = getSystemTotalMass();
-        Position centerOfMass = new Position(0, 0);
+    public long getVersion() {
+        return getStar().getVersion();
+    }
 
-        // Add weighted position of the Star
-        double starMass = getStar().getMass();
-        Position adjustedStarPosition = getStar().getAbsolutePosition().multiplyBy(starMass);
-        centerOfMass.increase(adjustedStarPosition);
+    /**
+     * Getter method for the metrics of the queries of the system.
+     * @return The metrics, off unless enabled.
+     * @see OperationMetrics
+     */
+    public OperationMetrics getMetrics() {
+        return metrics;
+    }
 
-        // Add weighted positions of the Planets
-        List<Planet> planets = getStar().getPlanets();
-        for(Planet planet : planets) {
-            double planetMass = planet.getMass();
-            Position adjustedPlanetPosition = planet.getAbsolutePosition().multiplyBy(planetMass);
-            centerOfMass.increase(adjustedPlanetPosition);
+    /**
+     * Getter method for the secondary indexes of the system on mass and orbiting radius.
+     * The indexes are built by the first call, then kept up to date with every modification.
+     * @return The indexes of the system.
+     * @see SystemIndexes
+     */
+    public SystemIndexes getIndexes() {
+        SystemIndexes current = indexes;
+        if(current != null)
+            return current;
+
+        synchronized(this) {
+            if(indexes == null)
+                indexes = buildListener(SystemIndexes::new);
+            return indexes;
+        }
+    }
 
-            List<Moon> moons = planet.getMoons();
-            // Add weighted positions of the Moons for every Planet
-            for(Moon moon : moons) {
-                double moonMass = moon.getMass();
-                Position adjustedMoonPosition = moon.getAbsolutePosition().multiplyBy(moonMass);
-                centerOfMass.increase(adjustedMoonPosition);
-            }
+    /**
+     * Getter method for the collisions of the system maintained incrementally.
+     * The index is built by the first call, then kept up to date with every modification.
+     * @return The collision index of the system.
+     * @see CollisionIndex
+     */
+    public CollisionIndex getCollisionIndex() {
+        CollisionIndex current = collisionIndex;
+        if(current != null)
+            return current;
+
+        synchronized(this) {
+            if(collisionIndex == null)
+                collisionIndex = buildListener(CollisionIndex::new);
+            return collisionIndex;
+        }
+    }
+
+    /**
+     * Getter method for the feed of the modifications of the system.
+     * The feed is created and registered by the first call, so it publishes only the following
+     * modifications. Closing it closes it for every subscriber, then the next call creates a new one.
+     * @return The change feed of the system.
+     * @see ChangeFeed
+     */
+    public ChangeFeed getChangeFeed() {
+        ChangeFeed current = changeFeed;
+        if(current != null && !current.isClosed())
+            return current;
+
+        synchronized(this) {
+            if(changeFeed == null || changeFeed.isClosed())
+                changeFeed = buildListener(star -> new ChangeFeed(this));
+            return changeFeed;
         }
+    }
 
-        //Divide coordinates by total mass
-        centerOfMass.multiplyBy(1.0/systemMass);
+    //Builds a listener from the current bodies and registers it.
+    //Writers wait meanwhile, so no modification is lost between the build and the registration.
+    private <T extends SystemListener> T buildListener(Function<Star, T> builder) {
+        StampedLock lock = getStar().getLock();
+        long stamp = lock.readLock();
+        try {
+            T listener = builder.apply(getStar());
+            addListener(listener);
+            return listener;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
 
-        return centerOfMass;
+    /**
+     * Registers a listener that receives every following modification of the system.
+     * @param listener The listener to register.
+     * @see SystemListener
+     */
+    public void addListener(SystemListener listener) {
+        getStar().addListener(listener);
     }
 
-    //Gets the total mass of the system (star + planets + moons)
-    private long getSystemTotalMass() {
-        // Star mass as starting mass
-        long totalMass = getStar().getMass();
+    /**
+     * Unregisters a listener previously registered.
+     * @param listener The listener to unregister.
+     */
+    public void removeListener(SystemListener listener) {
+        getStar().removeListener(listener);
+    }
 
-        List<Planet> planets = getStar().getPlanets();
+    /**
+     * Calculates the center of mass of the system.
+     * It combines the star with the barycenter of every planet subsystem, which the planets keep
+     * aggregated, so it costs O(planets) whatever the number of moons, and the result is reused until the
+     * next modification.
+     * @return The position of the  center of mass of the system
+     * @see Position
+     * @see Planet#getBarycenter()
+     */
+    public Position getCenterOfMass() {
+        long start = metrics.start();
+        CenterOfMassEvent event = new CenterOfMassEvent();
+        event.begin();
+        try {
+            Position cached = cache.getCenterOfMass(getVersion());
+            if(cached != null) {
+                event.version = getVersion();
+                event.cached = true;
+                return cached;
+            }
+            //The version read by the computation is the one of the result, once the read is consistent.
+            Position centerOfMass = read(() -> computeCenterOfMass(event));
+            cache.putCenterOfMass(event.version, centerOfMass);
+            return centerOfMass;
+        } catch(CelestialBodyNotFoundException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            event.commit();
+            metrics.stop(OperationMetrics.Operation.CENTER_OF_MASS, start);
+        }
+    }
 
-        // Add mass of all the planets and their moons to the total
-        for (Planet planet: planets) {
-            totalMass += planet.getMass();
+    //Calculates the center of mass from the planet aggregates, the caller has to guarantee a consistent read.
+    private Position computeCenterOfMass(CenterOfMassEvent event) {
+        Star star = getStar();
+        Position starPosition = star.getAbsolutePosition();
+        long systemMass = star.getMass();
+        MassKernel.CompensatedSum weightedX = new MassKernel.CompensatedSum();
+        MassKernel.CompensatedSum weightedY = new MassKernel.CompensatedSum();
+
+        //Positions relative to the star, which is added back at the end.
+        for(Planet planet : star.getPlanets()) {
+            long subsystemMass = planet.getSubsystemMass();
+            Position barycenter = planet.getRelativeBarycenter();
+            systemMass += subsystemMass;
+            weightedX.add(barycenter.getX() * subsystemMass);
+            weightedY.add(barycenter.getY() * subsystemMass);
+        }
 
-            // Add mass of all the moons of the planet to the total
-            List<Moon> moons = planet.getMoons();
-            for(Moon moon : moons)
-                totalMass += moon.getMass();
+        event.version = star.getVersion();
+        event.bodies = 1 + star.getPlanets().size();
+        Position centerOfMass = new Position(weightedX.value(), weightedY.value()).multiplyBy(1.0/systemMass);
+        centerOfMass.increase(starPosition);
+        return centerOfMass;
+    }
+
+    //Runs a read-only operation on the system.
+    //It is attempted once without locking; if a writer changed the system meanwhile (the result, or any
+    //exception thrown, may come from an inconsistent state) it is run again holding the read lock.
+    private <T> T read(Read<T> operation) throws CelestialBodyNotFoundException {
+        StampedLock lock = getStar().getLock();
+        long stamp = lock.tryOptimisticRead();
+        if(stamp != 0) {
+            try {
+                T result = operation.run();
+                if(lock.validate(stamp))
+                    return result;
+            } catch(RuntimeException | CelestialBodyNotFoundException e) {
+                if(lock.validate(stamp))
+                    throw e;
+            }
         }
 
-        return totalMass;
+        stamp = lock.readLock();
+        try {
+            return operation.run();
+        } finally {
+            lock.unlockRead(stamp);
+        }
     }
 
     /**
@@ -113,128 +304,234 @@ public class SolarSystem {
      * @see CelestialBody
      */
     public CelestialBody findCelestialBody(String identifier) throws CelestialBodyNotFoundException {
+        long start = metrics.start();
+        LookupEvent event = new LookupEvent();
+        event.begin();
+        try {
+            return read(() -> lookupCelestialBody(identifier, event));
+        } finally {
+            event.commit();
+            metrics.stop(OperationMetrics.Operation.FIND_CELESTIAL_BODY, start);
+        }
+    }
+
+    //Finds a celestial body given its identifier, the caller has to guarantee a consistent read.
+    //The identifier is split in planet and moon numbers, which are searched with a binary search.
+    //The outcome and the number of bodies compared are recorded in the event.
+    private CelestialBody lookupCelestialBody(String identifier, LookupEvent event) throws CelestialBodyNotFoundException {
         Star star = getStar();
+        event.identifier = identifier;
+        event.hit = true;
+        event.probeLength = 1;
         if(identifier.equals(star.getIdentifier()))
             return star;
 
-        try {
-            return star.findPlanet(identifier);
-        } catch(CelestialBodyNotFoundException planetNotFound) {
-            for(Planet planet : star.getPlanets()) {
-                try {
-                    return planet.findMoon(identifier);
-                } catch(CelestialBodyNotFoundException ignored) {}
-            }
+        //A moon identifier is its planet identifier followed by "M" and the moon number.
+        int moonSeparator = identifier.lastIndexOf('M');
+        String planetIdentifier = (moonSeparator > 0 ? identifier.substring(0, moonSeparator) : identifier);
+        List<Planet> planets = star.getPlanets();
+        event.probeLength += binarySearchSteps(planets.size());
+        Planet planet = Satellite.findByNumber(planets, Satellite.numberAfter(planetIdentifier, star.getIdentifier() + "P"));
+
+        if(planet != null && identifier.equals(planet.getIdentifier()))
+            return planet;
+        if(planet != null && moonSeparator > 0) {
+            List<Moon> moons = planet.getMoons();
+            event.probeLength += binarySearchSteps(moons.size());
+            Moon moon = Satellite.findByNumber(moons, Satellite.numberAfter(identifier, planet.getIdentifier() + "M"));
+            if(moon != null && identifier.equals(moon.getIdentifier()))
+                return moon;
         }
+
+        event.hit = false;
         throw new CelestialBodyNotFoundException(identifier);
     }
 
+    //Bodies compared at most by a binary search.
+    private static int binarySearchSteps(int size) {
+        return 32 - Integer.numberOfLeadingZeros(size);
+    }
+
 
 
 
     /**
-     * Checks for all types of possible collisions in the system, return true if found.
-     * @return True if there are possible collisions, false if not.
+     * Takes an immutable snapshot of the current version of the system.
+     * <p>
+     * The snapshot is shared by every caller until the next modification, and it reuses the data of the
+     * planets that did not change since the previous one.
+     * @return The snapshot of the system.
+     * @see SystemSnapshot
      */
-    public boolean detectCollisions() {
-        return checkCollisionBetweenPlanets() || checkCollisionsBetweenMoons()
-                || checkCollisionStarAndMoons() || checkCollisionPlanetsAndMoons();
+    public SystemSnapshot snapshot() {
+        StampedLock lock = getStar().getLock();
+        long stamp = lock.readLock();
+        try {
+            return getStar().snapshot();
+        } finally {
+            lock.unlockRead(stamp);
+        }
     }
 
-    //Check collisions between planets
-    //Returns true if found
-    private boolean checkCollisionBetweenPlanets() {
-        List<Planet> planets = getStar().getPlanets();
-        ArrayList<Double> distancesFromStar = new ArrayList<>();
-
-        for(Planet planet : planets) {
-            double distance = planet.distanceToParent();
-            if(distancesFromStar.contains(distance))
-                return true;
-
-            distancesFromStar.add(distance);
+    /**
+     * Appends the current version of the system to a store outside the heap.
+     * @param store The store, usually empty.
+     * @throws IOException If a file store cannot be written.
+     * @see BodyStore
+     */
+    public void storeTo(BodyStore store) throws IOException {
+        SystemSnapshot snapshot = snapshot();
+        Position starPosition = snapshot.getStarPosition();
+        store.append(0, Math.max(Star.numberOf(snapshot.getStarIdentifier()), 0), snapshot.getPlanetCounter(),
+                starPosition.getX(), starPosition.getY(), snapshot.getStarMass());
+
+        for(PlanetSnapshot planet : snapshot.getPlanets()) {
+            store.append(planet.getNumber(), 0, planet.getMoonCounter(), planet.getX(), planet.getY(), planet.getMass());
+            for(int i = 0; i < planet.getMoonCount(); i++)
+                store.append(planet.getNumber(), planet.getMoonNumber(i), 0, planet.getMoonX(i), planet.getMoonY(i),
+                        planet.getMoonMass(i));
         }
-        return false;
     }
 
-    //Check collisions of moons with the star
-    //Returns true if found
-    private boolean checkCollisionStarAndMoons() {
-        List<Planet> planets = getStar().getPlanets();
-
-        for(Planet planet : planets) {
-            List<Moon> moons = planet.getMoons();
-            for(Moon moon : moons) {
-                if(planet.distanceToParent() <= moon.distanceToParent())
-                    return true;
+    /**
+     * Rebuilds a solar system from a store, keeping the identifiers of the star, its planets and their moons.
+     * The star takes the number it had even if another star of this program has it too.
+     * @param store A store written by {@link #storeTo(BodyStore)}.
+     * @return The new solar system.
+     * @throws IllegalArgumentException If the store is empty.
+     */
+    public static SolarSystem loadFrom(BodyStore store) {
+        if(store.size() == 0)
+            throw new IllegalArgumentException("The store does not contain a solar system");
+
+        SolarSystem system = new SolarSystem(new Star(new Position(store.getX(0), store.getY(0)), store.getMass(0),
+                BodyArena.DIRECT, store.getMoonNumber(0)));
+        Star star = system.getStar();
+        Planet planet = null;
+        for(long i = 1; i < store.size(); i++) {
+            Position position = new Position(store.getX(i), store.getY(i));
+            if(store.getMoonNumber(i) == 0) {
+                planet = star.restorePlanet(store.getPlanetNumber(i), position, store.getMass(i));
+                planet.reserveMoonNumbers(store.getCounter(i));
+            } else if(planet != null) {
+                planet.restoreMoon(store.getMoonNumber(i), position, store.getMass(i));
             }
         }
-
-        return false;
+        star.reservePlanetNumbers(store.getCounter(0));
+        return system;
     }
 
-    //Check collisions within moons.
-    //Returns true if found
-    private boolean checkCollisionsBetweenMoons() {
-        List<Planet> planets = getStar().getPlanets();
-
-        for (int i = 0; i < planets.size(); i++) {
-            for (int j = i; j < planets.size(); j++) {
-                Planet first = planets.get(i);
-                Planet second = planets.get(j);
-
-                List<Moon> firstMoons = first.getMoons();
-                List<Moon> secondMoons = second.getMoons();
+    /**
+     * Writes the current version of the system as a compact archive, with quantized coordinates.
+     * @param out The stream, not closed.
+     * @param quantum The precision of the coordinates: they are rounded to a multiple of it.
+     * @throws IOException If the stream cannot be written.
+     * @see CompactArchive
+     */
+    public void writeCompact(OutputStream out, double quantum) throws IOException {
+        CompactArchive.write(snapshot(), out, quantum);
+    }
 
-                for (Moon firstMoon : firstMoons) {
-                    for (Moon secondMoon : secondMoons) {
-                        if(canMoonsCollide(firstMoon,secondMoon)){
-                            return true;
-                        }
-                    }
-                }
+    /**
+     * Creates a solar system from a compact archive.
+     * @param in A stream written by {@link #writeCompact(OutputStream, double)}, closed at the end.
+     * @return The new solar system, with the identifiers of the archive and the coordinates rounded to its
+     * quantum. The star takes the number it had even if another star of this program has it too.
+     * @throws IOException If the stream cannot be read or is not a valid archive.
+     */
+    public static SolarSystem readCompact(InputStream in) throws IOException {
+        try(CompactArchive.Reader reader = CompactArchive.open(in)) {
+            Position starPosition = reader.getStarPosition();
+            SolarSystem system = new SolarSystem(new Star(starPosition, reader.getStarMass(), BodyArena.DIRECT,
+                    Math.max(Star.numberOf(reader.getStarIdentifier()), 0)));
+            Star star = system.getStar();
+            for(PlanetSnapshot snapshot = reader.next(); snapshot != null; snapshot = reader.next()) {
+                Planet planet = star.restorePlanet(snapshot.getNumber(), new Position(snapshot.getX(), snapshot.getY()),
+                        snapshot.getMass());
+                planet.reserveMoonNumbers(snapshot.getMoonCounter());
+                for(int i = 0; i < snapshot.getMoonCount(); i++)
+                    planet.restoreMoon(snapshot.getMoonNumber(i), new Position(snapshot.getMoonX(i), snapshot.getMoonY(i)),
+                            snapshot.getMoonMass(i));
             }
+            star.reservePlanetNumbers(reader.getPlanetCounter());
+            return system;
         }
-        return false;
     }
 
-    //Checks if two moons can collide
-    private boolean canMoonsCollide(Moon first, Moon second){
-        //If the two moons are from the same planet they collide if they have the same orbiting radius.
-        if(first.getParent() == second.getParent()){
-            return (first.distanceToParent() == second.distanceToParent());
+    /**
+     * Computes the statistics of the system: distributions of mass, orbiting radius and moons per planet,
+     * and the bounding box of the bodies.
+     * They are computed in a single parallel pass over a snapshot, and reused until the next modification.
+     * @return The statistics of the current version.
+     * @see SystemStatistics
+     */
+    public SystemStatistics getStatistics() {
+        long start = metrics.start();
+        try {
+            SystemStatistics cached = cache.getStatistics(getVersion());
+            if(cached != null)
+                return cached;
+            SystemStatistics statistics = SystemStatistics.of(snapshot());
+            cache.putStatistics(statistics.getVersion(), statistics);
+            return statistics;
+        } finally {
+            metrics.stop(OperationMetrics.Operation.STATISTICS, start);
         }
-
-        final Planet firstPlanet = (Planet)first.getParent();
-        final Planet secondPlanet = (Planet)second.getParent();
-        //equivalent of the distance between the two planets if they are aligned in their orbits.
-        final double distanceToStarDifference =
-                Math.abs( firstPlanet.distanceToParent() - secondPlanet.distanceToParent() );
-
-        return (first.distanceToParent() + second.distanceToParent() >= distanceToStarDifference);
     }
 
-    //Checks collisions within planets and moons of other planets
-    //Returns true if found
-    private boolean checkCollisionPlanetsAndMoons() {
-        final List<Planet> planets = getStar().getPlanets();
-
-        for (Planet firstPlanet: planets) {
-            for (Planet otherPlanet : planets) {
-                final List<Moon> otherPlanetMoons = otherPlanet.getMoons();
-
-                //Distance between the two planets if they were aligned in their orbits.
-                final double distanceToStarDifference =
-                        Math.abs(firstPlanet.distanceToParent() - otherPlanet.distanceToParent());
+    /**
+     * Draws the current version of the system as a pyramid of PNG tiles, from a single tile with the
+     * whole system to the given zoom level.
+     * The tiles are rendered in parallel from a snapshot, so the system can be modified meanwhile.
+     * @param directory The directory of the tiles, created if missing.
+     * @param maxZoom The deepest zoom level, where the system is 2^maxZoom tiles wide.
+     * @param monitor The monitor receiving the progress and checked for cancellation.
+     * @return The number of tiles written, tiles without bodies are skipped.
+     * @throws IOException If a tile cannot be written.
+     * @throws OperationCancelledException If the monitor is cancelled before the last tile.
+     * @see TileMap
+     */
+    public long exportMap(Path directory, int maxZoom, ProgressMonitor monitor)
+            throws IOException, OperationCancelledException {
+        return TileMap.export(snapshot(), directory, maxZoom, monitor);
+    }
 
-                for (Moon moon : otherPlanetMoons) {
-                    if (moon.distanceToParent() >= distanceToStarDifference)
-                        return true;
-                }
-            }
+    /**
+     * Checks for all types of possible collisions in the system, return true if found.
+     * The scan runs on a snapshot, so it sees a consistent system while it is being edited, and the result
+     * is reused until the next modification.
+     * @return True if there are possible collisions, false if not.
+     * @see SystemSnapshot#detectCollisions()
+     */
+    public boolean detectCollisions() {
+        try {
+            return detectCollisions(new ProgressMonitor());
+        } catch(OperationCancelledException e) {
+            throw new IllegalStateException(e);
         }
+    }
 
-        return false;
+    /**
+     * Checks for all types of possible collisions in the system, reporting the progress of the scan.
+     * The system can be modified meanwhile, and cancelling the scan does not affect it.
+     * @param monitor The monitor receiving the progress and checked for cancellation.
+     * @return True if there are possible collisions, false if not.
+     * @throws OperationCancelledException If the monitor is cancelled before the end of the scan.
+     * @see SystemSnapshot#detectCollisions(ProgressMonitor)
+     */
+    public boolean detectCollisions(ProgressMonitor monitor) throws OperationCancelledException {
+        long start = metrics.start();
+        try {
+            Boolean cached = cache.getCollisions(getVersion());
+            if(cached != null)
+                return cached;
+            SystemSnapshot snapshot = snapshot();
+            boolean collisions = snapshot.detectCollisions(monitor);
+            cache.putCollisions(snapshot.getVersion(), collisions);
+            return collisions;
+        } finally {
+            metrics.stop(OperationMetrics.Operation.DETECT_COLLISIONS, start);
+        }
     }
 
 
@@ -246,14 +543,73 @@ public class SolarSystem {
      * " S1P1M1 > S1P1 > S1 > S1P3 "
      * " S1 > S1P1 > S1P1M1 "
      * " S1P1 > S1 > S1P2 "
+     * The most recently used paths are reused until the next modification.
      * @param startIdentifier Identifier of the celestial body at the start of the  path.
      * @param endIdentifier Identifier of the celestial body at the end of the path.
      * @return <p>A list that represents the path between the two celestial bodies.
      * May throw CelestialBodyNotFoundException if either of the two celestial bodies are not found in the system</p>
      */
     public List<CelestialBody> findPath(String startIdentifier,String endIdentifier) throws CelestialBodyNotFoundException {
-        CelestialBody start = findCelestialBody(startIdentifier);
-        CelestialBody end = findCelestialBody(endIdentifier);
+        long start = metrics.start();
+        try {
+            List<CelestialBody> cached = cache.getPath(getVersion(), startIdentifier, endIdentifier);
+            if(cached != null)
+                return new ArrayList<>(cached);
+            Versioned<List<CelestialBody>> path = read(() -> new Versioned<>(getVersion(),
+                    buildPath(startIdentifier, endIdentifier)));
+            cache.putPath(path.version, startIdentifier, endIdentifier, path.value);
+            return path.value;
+        } finally {
+            metrics.stop(OperationMetrics.Operation.FIND_PATH, start);
+        }
+    }
+
+    /**
+     * Finds the shortest route from a celestial body to another, following the orbits and also moving
+     * directly between any two bodies whose absolute positions are within a range.
+     * Examples, with a wide enough range:
+     * " S1P1M1 > S1P3 "
+     * " S1P1M1 > S1P2M4 > S1P3M2 "
+     * With a range of 0 the route is the path along the orbits.
+     * @param startIdentifier Identifier of the celestial body at the start of the route.
+     * @param endIdentifier Identifier of the celestial body at the end of the route.
+     * @param range The maximum distance of a direct transfer between two bodies.
+     * @return The shortest route, with its total distance.
+     * @throws CelestialBodyNotFoundException If either of the two celestial bodies is not found in the system.
+     * @see TransferGraph
+     */
+    public TransferGraph.Route findRoute(String startIdentifier, String endIdentifier, double range) throws CelestialBodyNotFoundException {
+        long start = metrics.start();
+        try {
+            return getTransferGraph(range).route(startIdentifier, endIdentifier);
+        } finally {
+            metrics.stop(OperationMetrics.Operation.FIND_ROUTE, start);
+        }
+    }
+
+    /**
+     * Returns the transfer graph of the current version of the system.
+     * <p>
+     * The graph is built from a snapshot in O(bodies) and reused by every route asked with the same
+     * range until the next modification.
+     * @param range The maximum distance of a direct transfer between two bodies.
+     * @return The transfer graph.
+     * @throws IllegalArgumentException If the range is negative.
+     */
+    public TransferGraph getTransferGraph(double range) {
+        SystemSnapshot snapshot = snapshot();
+        TransferGraph graph = transferGraph;
+        if(graph == null || graph.getVersion() != snapshot.getVersion() || graph.getRange() != range) {
+            graph = new TransferGraph(snapshot, range);
+            transferGraph = graph;
+        }
+        return graph;
+    }
+
+    //Builds the path between two celestial bodies, the caller has to guarantee a consistent read.
+    private List<CelestialBody> buildPath(String startIdentifier,String endIdentifier) throws CelestialBodyNotFoundException {
+        CelestialBody start = lookupCelestialBody(startIdentifier, new LookupEvent());
+        CelestialBody end = lookupCelestialBody(endIdentifier, new LookupEvent());
 
         //Check if the start and end are the same.
         if(startIdentifier.equals(endIdentifier))
@@ -266,6 +622,10 @@ public class SolarSystem {
 
         //While common parent not found
         while(fromStart.getFirst() != fromEnd.getFirst()){
+            //Two bodies without parents and no common one, only possible if one was removed meanwhile.
+            if(!(fromStart.getFirst() instanceof Satellite) && !(fromEnd.getFirst() instanceof Satellite))
+                throw new IllegalStateException("No common parent between " + startIdentifier + " and " + endIdentifier);
+
             //Checks if the current bodies are satellites.
             //If true, add the parents to the linked lists.
             if(fromStart.getFirst() instanceof Satellite){
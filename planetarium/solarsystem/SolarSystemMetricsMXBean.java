@@ -0,0 +1,38 @@
+package planetarium.solarsystem;
+
+/**
+ * Management interface of the metrics of a solar system, published through JMX.
+ * @see OperationMetrics
+ */
+public interface SolarSystemMetricsMXBean {
+    /**
+     * @return True if the operations are being measured.
+     */
+    boolean isEnabled();
+
+    /**
+     * Turns the measurements on or off, when off they cost a single volatile read per operation.
+     * @param enabled True to measure the operations.
+     */
+    void setEnabled(boolean enabled);
+
+    /**
+     * @return The number of planets currently in the system.
+     */
+    int getPlanetCount();
+
+    /**
+     * @return The number of moons currently in the system.
+     */
+    long getMoonCount();
+
+    /**
+     * @return One line per operation with count, mean and percentiles of the latency.
+     */
+    String[] getOperationSummaries();
+
+    /**
+     * Forgets every measurement taken so far.
+     */
+    void reset();
+}
@@ -0,0 +1,292 @@
+package planetarium.solarsystem;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Celestial bodies sorted by a numeric key, such as the mass or the orbiting radius.
+ * <p>
+ * The bodies are kept in two parallel sorted arrays of keys and bodies. Insertions go to a small sorted
+ * run beside them, and the removed bodies of the arrays are only marked, with their keys kept in a
+ * second small sorted run: queries search the arrays and the runs together, so counts cost O(log n) and
+ * range or top-k queries O(log n) plus the bodies returned, right after any modification. The runs are
+ * merged into the arrays in a single pass once they hold about the square root of the indexed bodies,
+ * so a modification costs O(sqrt n) amortized. A body whose key changes is updated as a removal followed
+ * by an insertion.
+ * @param <T> The type of the indexed celestial bodies.
+ * @see SystemIndexes
+ */
+public final class SortedIndex<T extends CelestialBody> {
+    //The runs are merged when larger than the square root of the size, or than this.
+    private static final int MIN_RUN = 32;
+
+    private final ToDoubleFunction<T> key;
+
+    private double[] keys = new double[0];
+    private Object[] bodies = new Object[0];
+    private int size = 0;
+
+    //Inserted bodies, not yet merged into the arrays.
+    private double[] runKeys = new double[16];
+    private Object[] runBodies = new Object[16];
+    private int runSize = 0;
+
+    //Removed bodies still in the arrays, and their keys. Bodies are compared with equals, since every
+    //read of a moon creates a new instance of it.
+    private final Set<Object> removed = new HashSet<>();
+    private double[] removedKeys = new double[16];
+    private int removedSize = 0;
+
+    //Created only by SystemIndexes.
+    SortedIndex(ToDoubleFunction<T> key) {
+        this.key = key;
+    }
+
+    //Inserts many bodies with a single sort and merge, their keys are computed now.
+    synchronized void addAll(Collection<? extends T> added) {
+        double[] addedKeys = new double[added.size()];
+        Object[] addedBodies = new Object[added.size()];
+        int count = 0;
+        for(T body : added) {
+            addedKeys[count] = key.applyAsDouble(body);
+            addedBodies[count] = body;
+            count++;
+        }
+        sort(addedKeys, addedBodies, 0, count, new double[count], new Object[count]);
+        merge();
+        mergeWith(addedKeys, addedBodies, count);
+    }
+
+    //Inserts a body, its key is computed now.
+    synchronized void add(T body) {
+        double bodyKey = key.applyAsDouble(body);
+        if(runSize == runKeys.length) {
+            runKeys = Arrays.copyOf(runKeys, runSize * 2);
+            runBodies = Arrays.copyOf(runBodies, runSize * 2);
+        }
+        //After the equal keys, so bodies with the same key stay in order of insertion.
+        int index = lowerBound(runKeys, runSize, bodyKey, true);
+        System.arraycopy(runKeys, index, runKeys, index + 1, runSize - index);
+        System.arraycopy(runBodies, index, runBodies, index + 1, runSize - index);
+        runKeys[index] = bodyKey;
+        runBodies[index] = body;
+        runSize++;
+        mergeIfLarge();
+    }
+
+    //Removes a body whose key did not change since it was indexed.
+    synchronized void remove(T body) {
+        remove(body, key.applyAsDouble(body));
+    }
+
+    //Updates a body whose key changed, given the key it was indexed with.
+    synchronized void update(T body, double oldKey) {
+        remove(body, oldKey);
+        add(body);
+    }
+
+    //Removes a body from the run if it is there, otherwise marks it as removed from the arrays.
+    private void remove(T body, double bodyKey) {
+        for(int i = lowerBound(runKeys, runSize, bodyKey, false); i < runSize && runKeys[i] == bodyKey; i++) {
+            if(runBodies[i].equals(body)) {
+                System.arraycopy(runKeys, i + 1, runKeys, i, runSize - i - 1);
+                System.arraycopy(runBodies, i + 1, runBodies, i, runSize - i - 1);
+                runBodies[--runSize] = null;
+                return;
+            }
+        }
+
+        if(!removed.add(body))
+            return;
+        if(removedSize == removedKeys.length)
+            removedKeys = Arrays.copyOf(removedKeys, removedSize * 2);
+        int index = lowerBound(removedKeys, removedSize, bodyKey, true);
+        System.arraycopy(removedKeys, index, removedKeys, index + 1, removedSize - index);
+        removedKeys[index] = bodyKey;
+        removedSize++;
+        mergeIfLarge();
+    }
+
+    //Removes every body.
+    synchronized void clear() {
+        keys = new double[0];
+        bodies = new Object[0];
+        size = 0;
+        Arrays.fill(runBodies, 0, runSize, null);
+        runSize = 0;
+        removed.clear();
+        removedSize = 0;
+    }
+
+    private void mergeIfLarge() {
+        if(runSize + removedSize > Math.max(MIN_RUN, (int) Math.sqrt(size)))
+            merge();
+    }
+
+    //Merges the run into the arrays, dropping the removed bodies.
+    private void merge() {
+        if(runSize == 0 && removedSize == 0)
+            return;
+        mergeWith(runKeys, runBodies, runSize);
+        Arrays.fill(runBodies, 0, runSize, null);
+        runSize = 0;
+    }
+
+    //Merges sorted bodies into the arrays in a single pass, skipping the removed bodies of the arrays.
+    private void mergeWith(double[] addedKeys, Object[] addedBodies, int addedSize) {
+        if(addedSize == 0 && removedSize == 0)
+            return;
+
+        double[] mergedKeys = new double[size + addedSize];
+        Object[] mergedBodies = new Object[size + addedSize];
+        int merged = 0;
+        int indexed = 0;
+        int added = 0;
+        while(indexed < size || added < addedSize) {
+            boolean takeIndexed = added == addedSize
+                    || (indexed < size && keys[indexed] <= addedKeys[added]);
+            double nextKey = takeIndexed ? keys[indexed] : addedKeys[added];
+            Object nextBody = takeIndexed ? bodies[indexed++] : addedBodies[added++];
+            if(!takeIndexed || !isRemoved(nextBody)) {
+                mergedKeys[merged] = nextKey;
+                mergedBodies[merged] = nextBody;
+                merged++;
+            }
+        }
+
+        keys = (merged == mergedKeys.length ? mergedKeys : Arrays.copyOf(mergedKeys, merged));
+        bodies = (merged == mergedBodies.length ? mergedBodies : Arrays.copyOf(mergedBodies, merged));
+        size = merged;
+        removed.clear();
+        removedSize = 0;
+    }
+
+    private boolean isRemoved(Object body) {
+        return removedSize > 0 && removed.contains(body);
+    }
+
+    //Stable merge sort of the first parallel arrays by key.
+    private static void sort(double[] keys, Object[] values, int from, int to, double[] keyBuffer, Object[] valueBuffer) {
+        if(to - from < 2)
+            return;
+        int middle = (from + to) >>> 1;
+        sort(keys, values, from, middle, keyBuffer, valueBuffer);
+        sort(keys, values, middle, to, keyBuffer, valueBuffer);
+        if(keys[middle - 1] <= keys[middle])
+            return;
+
+        System.arraycopy(keys, from, keyBuffer, from, to - from);
+        System.arraycopy(values, from, valueBuffer, from, to - from);
+        int left = from;
+        int right = middle;
+        for(int i = from; i < to; i++) {
+            if(right == to || (left < middle && keyBuffer[left] <= keyBuffer[right])) {
+                keys[i] = keyBuffer[left];
+                values[i] = valueBuffer[left++];
+            } else {
+                keys[i] = keyBuffer[right];
+                values[i] = valueBuffer[right++];
+            }
+        }
+    }
+
+    //First position among the first keys whose key is not lower (strict: not lower or equal) than the given one.
+    private static int lowerBound(double[] keys, int size, double bound, boolean strict) {
+        int low = 0;
+        int high = size;
+        while(low < high) {
+            int middle = (low + high) >>> 1;
+            if(keys[middle] < bound || (strict && keys[middle] == bound))
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+    //Number of the first keys between two bounds, included.
+    private static int count(double[] keys, int size, double min, double max) {
+        return Math.max(lowerBound(keys, size, max, true) - lowerBound(keys, size, min, false), 0);
+    }
+
+    //Walks the given positions of the arrays and of the run together in order of key, from the lowest
+    //or from the greatest, skipping the removed bodies, until limit bodies are found.
+    @SuppressWarnings("unchecked")
+    private List<T> collect(int from, int to, int runFrom, int runTo, int limit, boolean descending) {
+        List<T> collected = new ArrayList<>(Math.max(Math.min(limit, to - from + runTo - runFrom), 0));
+        int indexed = descending ? to - 1 : from;
+        int run = descending ? runTo - 1 : runFrom;
+        while(collected.size() < limit) {
+            boolean indexedLeft = descending ? indexed >= from : indexed < to;
+            boolean runLeft = descending ? run >= runFrom : run < runTo;
+            if(!indexedLeft && !runLeft)
+                break;
+            //The bodies of the arrays were inserted before the ones of the run with the same key.
+            boolean takeIndexed = !runLeft || (indexedLeft && (descending
+                    ? keys[indexed] > runKeys[run] : keys[indexed] <= runKeys[run]));
+            if(takeIndexed) {
+                Object body = bodies[indexed];
+                indexed += descending ? -1 : 1;
+                if(!isRemoved(body))
+                    collected.add((T) body);
+            } else {
+                collected.add((T) runBodies[run]);
+                run += descending ? -1 : 1;
+            }
+        }
+        return collected;
+    }
+
+    /**
+     * @return The number of indexed bodies.
+     */
+    public synchronized int size() {
+        return size - removedSize + runSize;
+    }
+
+    /**
+     * Counts the bodies whose key is between two bounds, included.
+     * @param min The lower bound.
+     * @param max The upper bound.
+     * @return The number of bodies in the range.
+     */
+    public synchronized int count(double min, double max) {
+        return count(keys, size, min, max) - count(removedKeys, removedSize, min, max)
+                + count(runKeys, runSize, min, max);
+    }
+
+    /**
+     * Finds the bodies whose key is between two bounds, included.
+     * @param min The lower bound.
+     * @param max The upper bound.
+     * @return The bodies in the range, sorted by increasing key.
+     */
+    public synchronized List<T> range(double min, double max) {
+        return collect(lowerBound(keys, size, min, false), lowerBound(keys, size, max, true),
+                lowerBound(runKeys, runSize, min, false), lowerBound(runKeys, runSize, max, true),
+                Integer.MAX_VALUE, false);
+    }
+
+    /**
+     * Finds the bodies with the greatest keys.
+     * @param k How many bodies to return at most.
+     * @return The bodies, sorted by decreasing key.
+     */
+    public synchronized List<T> top(int k) {
+        return collect(0, size, 0, runSize, k, true);
+    }
+
+    /**
+     * Finds the bodies with the lowest keys.
+     * @param k How many bodies to return at most.
+     * @return The bodies, sorted by increasing key.
+     */
+    public synchronized List<T> bottom(int k) {
+        return collect(0, size, 0, runSize, k, false);
+    }
+}
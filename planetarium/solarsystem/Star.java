@@ -5,33 +5,84 @@ import planetarium.solarsystem.error.CelestialBodyNotFoundException;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.ListIterator;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.concurrent.locks.StampedLock;
 
 /**
  * Represent a star, the center of its solar system.
  */
 public class Star extends CelestialBody {
-    private final List<Planet> planets;
+    private final ChunkedList<Planet> planets;
     private int numberOfPlanets = 0;
+    //Memory of the moons of the star's planets.
+    private final BodyArena arena;
+
+    //Guards the list of planets and the lists of moons of every planet of the star.
+    private final StampedLock lock = new StampedLock();
+
+    //Grows with every modification of the system, written only under the write lock.
+    private volatile long version = 0;
+    //Grows every time a body of the system moves, invalidating the cached absolute positions.
+    private volatile long moveEpoch = 0;
+    //Snapshot of the current version, built on the first request and discarded by the next modification.
+    private volatile SystemSnapshot snapshot;
+    //Listeners of the modifications of the star's planets and moons.
+    private final List<SystemListener> listeners = new CopyOnWriteArrayList<>();
     
     private static int numberOfStars = 0;
 
+    //Parent shared by every planet removed from its system, it never has planets and never changes.
+    static final Star DETACHED = new Star();
+
     /**
      * The maximum number of planets that can orbit a star.
+     * It can be configured with the system property planetarium.maxPlanets, 26000 by default.
      */
-    public static final int MAX_NUMBER_OF_PLANETS = 26000;
+    public static final int MAX_NUMBER_OF_PLANETS = Integer.getInteger("planetarium.maxPlanets", 26000);
 
     //Protected because it should be instantiated ONLY from a SolarSystem's constructor.
     protected Star(Position starPosition, long starMass) {
-        super(starPosition, starMass, "S" + (numberOfStars + 1));
-        planets = new ArrayList<>();
-        numberOfStars++;
+        this(starPosition, starMass, BodyArena.DIRECT, 0);
+    }
+
+    //Creates a star whose planets keep their moons in the given arena.
+    //A positive number restores the identifier of a saved star, 0 takes the next one.
+    protected Star(Position starPosition, long starMass, BodyArena arena, int number) {
+        super(starPosition, starMass, "S" + (number > 0 ? number : numberOfStars + 1));
+        planets = new ChunkedList<>();
+        this.arena = arena;
+        numberOfStars = Math.max(numberOfStars + (number > 0 ? 0 : 1), number);
     }
     //Protected because it should be instantiated ONLY from a SolarSystem's constructor.
     protected Star(double x, double y, long starMass) {
         this(new Position(x,y), starMass);
     }
 
+    //Creates the DETACHED star, which does not take a number from the real stars.
+    private Star() {
+        super(new Position(0, 0), 0, "S0");
+        planets = new ChunkedList<>();
+        arena = BodyArena.DIRECT;
+    }
+
+    //Rejects a modification of the DETACHED star, which is shared by the planets of every system.
+    private void checkNotDetached() {
+        if(this == DETACHED)
+            throw new IllegalStateException("A planet removed from its system has no star to modify");
+    }
+
+    //Memory where the planets of the star keep their moons.
+    protected BodyArena getArena() {
+        return arena;
+    }
+
+    //Number in the identifier of a star, -1 if it is not like "S" followed by digits.
+    static int numberOf(String starIdentifier) {
+        return Satellite.numberAfter(starIdentifier, "S");
+    }
+
     /**
      * Getter method for the absolute position of the star.
      * @return Returns the position of the star relative to an arbitrary origin,
@@ -42,6 +93,33 @@ public class Star extends CelestialBody {
         return new Position(position.getX(), position.getY());
     }
 
+    //Move epoch of the system, see Satellite.cachedAbsolutePosition().
+    protected long getMoveEpoch() {
+        return moveEpoch;
+    }
+
+    //Records that a body moved, the caller has to hold the write lock.
+    protected void markMoved() {
+        moveEpoch++;
+    }
+
+    //Moves the star or changes its mass, planets and moons follow it since they are relative.
+    @Override
+    protected void update(Position newPosition, long newMass) {
+        checkNotDetached();
+        long stamp = lock.writeLock();
+        try {
+            Position oldPosition = getAbsolutePosition();
+            long oldMass = getMass();
+            assign(newPosition, newMass);
+            markMoved();
+            markModified();
+            notifyListeners(listener -> listener.bodyUpdated(this, oldPosition, oldMass));
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
     /**
      * Getter method for the list of planets orbiting the star.
      * @return The list of Planet instances orbiting the star.
@@ -51,11 +129,87 @@ public class Star extends CelestialBody {
         return planets;
     }
 
+    //Lock shared by the star and its planets, writers hold it only for the single structural change.
+    protected StampedLock getLock() {
+        return lock;
+    }
+
+    //Version of the system, see SystemSnapshot.getVersion().
+    protected long getVersion() {
+        return version;
+    }
+
+    //Records a modification of the star's planets or moons, the caller has to hold the write lock.
+    protected void markModified() {
+        version++;
+        snapshot = null;
+    }
+
+    //Returns the snapshot of the current version, building it if needed.
+    //The caller has to hold the read lock, so the cached snapshot cannot be torn.
+    protected SystemSnapshot snapshot() {
+        SystemSnapshot current = snapshot;
+        if(current == null) {
+            current = new SystemSnapshot(this);
+            snapshot = current;
+        }
+        return current;
+    }
+
+    //Registers a listener, see SolarSystem.addListener().
+    protected void addListener(SystemListener listener) {
+        listeners.add(listener);
+    }
+
+    //Unregisters a listener, see SolarSystem.removeListener().
+    protected void removeListener(SystemListener listener) {
+        listeners.remove(listener);
+    }
+
+    //Delivers a modification to every listener, the caller has to hold the write lock.
+    protected void notifyListeners(Consumer<SystemListener> event) {
+        for(SystemListener listener : listeners)
+            event.accept(listener);
+    }
+
     //Counter of planets created around the star, used to make unique identifiers.
     protected int getNumberOfPlanets() {
         return numberOfPlanets;
     }
 
+    //Recreates a planet with the given progressive number, used to restore a saved system.
+    //The number must not belong to another planet, the planet is placed in order of number.
+    protected Planet restorePlanet(int number, Position planetRelativePosition, long planetMass) {
+        checkNotDetached();
+        long stamp = lock.writeLock();
+        try {
+            int counter = numberOfPlanets;
+            numberOfPlanets = number - 1;
+            Planet planet = new Planet(planetRelativePosition, planetMass, this);
+            numberOfPlanets = Math.max(counter, number);
+            planets.add(Satellite.insertionIndex(planets, number), planet);
+            markModified();
+            notifyListeners(listener -> listener.planetAdded(planet));
+            return planet;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    //Makes sure the next planet gets a number greater than the given one, used to restore a saved system.
+    protected void reservePlanetNumbers(int number) {
+        checkNotDetached();
+        long stamp = lock.writeLock();
+        try {
+            if(number > numberOfPlanets) {
+                numberOfPlanets = number;
+                markModified();
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
 
     /**
      * Searches for an instance of a planet around the star given its identifier.
@@ -67,11 +221,9 @@ public class Star extends CelestialBody {
      * @see CelestialBodyNotFoundException
      */
     public Planet findPlanet(String identifier) throws CelestialBodyNotFoundException{
-        for(Planet planet : getPlanets()){
-            if(identifier.equals(planet.getIdentifier())){
-                return planet;
-            }
-        }
+        Planet planet = Satellite.findByNumber(getPlanets(), Satellite.numberAfter(identifier, getIdentifier() + "P"));
+        if(planet != null && identifier.equals(planet.getIdentifier()))
+            return planet;
         throw new CelestialBodyNotFoundException(identifier);
     }
 
@@ -80,12 +232,24 @@ public class Star extends CelestialBody {
      * WARNING: It may not create the planet if it exceeds the max number.
      * @param planetRelativePosition The new planet's position relative to the star.
      * @param planetMass The new planet's mass.
+     * @return True if the planet was created, false if the star already has the max number of planets.
+     * @throws IllegalStateException If the star is the parent of the removed planets.
      * @see Planet
      */
-    public void addNewPlanet(Position planetRelativePosition, long planetMass) {
-        if(planets.size() < MAX_NUMBER_OF_PLANETS){
-            planets.add(new Planet(planetRelativePosition, planetMass, this));
+    public boolean addNewPlanet(Position planetRelativePosition, long planetMass) {
+        checkNotDetached();
+        long stamp = lock.writeLock();
+        try {
+            if(planets.size() >= MAX_NUMBER_OF_PLANETS)
+                return false;
+            Planet planet = new Planet(planetRelativePosition, planetMass, this);
+            planets.add(planet);
             numberOfPlanets++;
+            markModified();
+            notifyListeners(listener -> listener.planetAdded(planet));
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
         }
     }
 
@@ -95,24 +259,98 @@ public class Star extends CelestialBody {
      * @param relativeX The new planet's offset along the x-axis relative to the star.
      * @param relativeY The new planet's offset along the y-axis relative to the star.
      * @param planetMass The new planet's mass.
+     * @return True if the planet was created, false if the star already has the max number of planets.
      * @see Planet
      */
-    public void addNewPlanet(double relativeX, double relativeY, long planetMass) {
-        addNewPlanet(new Position(relativeX, relativeY), planetMass);
+    public boolean addNewPlanet(double relativeX, double relativeY, long planetMass) {
+        return addNewPlanet(new Position(relativeX, relativeY), planetMass);
     }
 
     //Removes a planet given its instance
     protected void removeOldPlanet(Planet planetToRemove) {
-        planets.remove(planetToRemove);
+        long stamp = lock.writeLock();
+        try {
+            int index = Satellite.indexOfNumber(planets, planetToRemove.getNumber());
+            if(index >= 0 && planets.get(index) == planetToRemove) {
+                planets.remove(index);
+                markModified();
+                notifyListeners(listener -> listener.planetRemoved(planetToRemove));
+                //Detached under the lock, so a writer waiting for it sees the planet removed.
+                planetToRemove.deleteStarReference();
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+
+    /**
+     * Removes at once the planets, together with their moons, that satisfy a condition, such as the
+     * planets beyond an orbiting radius.
+     * The condition is evaluated in parallel on many planets and the list of planets is compacted in a
+     * single pass, instead of shifting it once per removed planet.
+     * @param filter The condition of the planets to remove.
+     * @return The number of removed planets.
+     */
+    public int removePlanetsIf(Predicate<? super Planet> filter) {
+        long stamp = lock.writeLock();
+        try {
+            List<Planet> removed = new ArrayList<>();
+            planets.removeIf(filter, removed::add);
+            if(!removed.isEmpty()) {
+                markModified();
+                notifyListeners(listener -> listener.planetsRemoved(removed));
+                removed.forEach(Planet::deleteStarReference);
+            }
+            return removed.size();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
     }
 
+    /**
+     * Removes at once the moons of every planet that satisfy a condition, such as the moons lighter than
+     * a mass.
+     * The planets are processed in parallel, each compacting its list of moons in a single pass.
+     * @param filter The condition of the moons to remove.
+     * @return The number of removed moons.
+     */
+    public int removeMoonsIf(Predicate<? super Moon> filter) {
+        long stamp = lock.writeLock();
+        try {
+            List<List<Moon>> removed = planets.parallelStream()
+                    .map(planet -> planet.compactMoons(filter))
+                    .toList();
+            int count = 0;
+            for(int i = 0; i < removed.size(); i++) {
+                List<Moon> moons = removed.get(i);
+                if(!moons.isEmpty()) {
+                    if(count == 0)
+                        markModified();
+                    count += moons.size();
+                    Planet planet = planets.get(i);
+                    notifyListeners(listener -> listener.moonsRemoved(planet, moons));
+                }
+            }
+            removed.parallelStream().forEach(moons -> moons.forEach(Moon::deletePlanetReference));
+            return count;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
 
     //Removes all planets and moon of the system.
     public void removeAllPlanets(){
-        ListIterator<Planet> iter = getPlanets().listIterator();
-        while(iter.hasNext()){
-            iter.next().deleteStarReference();
-            iter.remove();
+        long stamp = lock.writeLock();
+        try {
+            //The listeners are notified while the removed planets still reference the star.
+            List<Planet> removed = new ArrayList<>(planets);
+            planets.clear();
+            markModified();
+            notifyListeners(SystemListener::allPlanetsRemoved);
+            removed.forEach(Planet::deleteStarReference);
+        } finally {
+            lock.unlockWrite(stamp);
         }
     }
 
@@ -0,0 +1,455 @@
+package planetarium.solarsystem;
+
+import planetarium.solarsystem.error.CelestialBodyNotFoundException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Differences between two versions of a solar system, such as two variants of the same catalog.
+ * <p>
+ * The two systems are walked together in order of planet number, and of moon number inside a planet,
+ * as in a merge-join: only the current planet of each side is held, so the extra memory does not depend
+ * on the size of the systems. Bodies are matched by number, not by identifier, since two systems have
+ * stars with different identifiers: the identifiers of the differences use the star of the first system.
+ * <p>
+ * A diff can be applied as a patch to a system equal to the first one to make it equal to the second
+ * one. The counters of the numbers never used by a body are not part of the diff.
+ */
+public final class SystemDiff {
+    /**
+     * Kind of a difference.
+     */
+    public enum Type {
+        ADDED, REMOVED, CHANGED
+    }
+
+    /**
+     * A body that is only in the first system, only in the second one, or in both with a different
+     * position or mass.
+     */
+    public static final class Difference {
+        private final Type type;
+        private final String identifier;
+        private final int planetNumber;
+        private final int moonNumber;
+        private final double oldX;
+        private final double oldY;
+        private final long oldMass;
+        private final double newX;
+        private final double newY;
+        private final long newMass;
+
+        private Difference(Type type, String identifier, int planetNumber, int moonNumber, double oldX, double oldY,
+                           long oldMass, double newX, double newY, long newMass) {
+            this.type = type;
+            this.identifier = identifier;
+            this.planetNumber = planetNumber;
+            this.moonNumber = moonNumber;
+            this.oldX = oldX;
+            this.oldY = oldY;
+            this.oldMass = oldMass;
+            this.newX = newX;
+            this.newY = newY;
+            this.newMass = newMass;
+        }
+
+        /**
+         * @return The kind of the difference.
+         */
+        public Type getType() { return type; }
+
+        /**
+         * @return The identifier of the body in the first system, or the one it would have there if added.
+         */
+        public String getIdentifier() { return identifier; }
+
+        /**
+         * @return The number of the planet, or of the planet of the moon, 0 for the star.
+         */
+        public int getPlanetNumber() { return planetNumber; }
+
+        /**
+         * @return The number of the moon, 0 for a planet or the star.
+         */
+        public int getMoonNumber() { return moonNumber; }
+
+        /**
+         * @return The position in the first system, relative to the parent or absolute for the star,
+         * null if the body was added.
+         */
+        public Position getOldPosition() { return type == Type.ADDED ? null : new Position(oldX, oldY); }
+
+        /**
+         * @return The mass in the first system, 0 if the body was added.
+         */
+        public long getOldMass() { return oldMass; }
+
+        /**
+         * @return The position in the second system, relative to the parent or absolute for the star,
+         * null if the body was removed.
+         */
+        public Position getNewPosition() { return type == Type.REMOVED ? null : new Position(newX, newY); }
+
+        /**
+         * @return The mass in the second system, 0 if the body was removed.
+         */
+        public long getNewMass() { return newMass; }
+
+        @Override
+        public String toString() {
+            return switch(type) {
+                case ADDED -> String.format("[ + %s\t\tmass: %d\t\tposition: ( %.3f , %.3f ) ]", identifier,
+                        newMass, newX, newY);
+                case REMOVED -> String.format("[ - %s\t\tmass: %d\t\tposition: ( %.3f , %.3f ) ]", identifier,
+                        oldMass, oldX, oldY);
+                case CHANGED -> String.format("[ ~ %s\t\tmass: %d -> %d\t\tposition: ( %.3f , %.3f ) -> ( %.3f , %.3f ) ]",
+                        identifier, oldMass, newMass, oldX, oldY, newX, newY);
+            };
+        }
+    }
+
+    /**
+     * A system read one planet at a time in increasing order of number, such as a live system, a snapshot
+     * or a {@link CompactArchive}.
+     */
+    public interface Source extends Closeable {
+        /**
+         * @return The identifier of the star.
+         */
+        String getStarIdentifier();
+
+        /**
+         * @return The absolute position of the star.
+         */
+        Position getStarPosition();
+
+        /**
+         * @return The mass of the star.
+         */
+        long getStarMass();
+
+        /**
+         * Reads the next planet with its moons.
+         * @return The planet with a number greater than the previous one, or null after the last one.
+         * @throws IOException If the planet cannot be read.
+         */
+        PlanetSnapshot next() throws IOException;
+
+        /**
+         * Reads the planets of a snapshot.
+         * @param snapshot The system.
+         * @return The source.
+         */
+        static Source of(SystemSnapshot snapshot) {
+            Iterator<PlanetSnapshot> planets = snapshot.getPlanets().iterator();
+            return new Source() {
+                @Override
+                public String getStarIdentifier() { return snapshot.getStarIdentifier(); }
+
+                @Override
+                public Position getStarPosition() { return snapshot.getStarPosition(); }
+
+                @Override
+                public long getStarMass() { return snapshot.getStarMass(); }
+
+                @Override
+                public PlanetSnapshot next() { return planets.hasNext() ? planets.next() : null; }
+
+                @Override
+                public void close() {}
+            };
+        }
+
+        /**
+         * Reads the planets of a live system without copying it: every planet is copied when it is read,
+         * so a system modified meanwhile is seen partly before and partly after the modification. A
+         * {@link SolarSystem#snapshot()} gives a consistent view instead, at the cost of memory.
+         * @param system The system.
+         * @return The source.
+         */
+        static Source of(SolarSystem system) {
+            Star star = system.getStar();
+            Position starPosition = star.getAbsolutePosition();
+            long starMass = star.getMass();
+            return new Source() {
+                private int lastNumber = 0;
+
+                @Override
+                public String getStarIdentifier() { return star.getIdentifier(); }
+
+                @Override
+                public Position getStarPosition() { return new Position(starPosition.getX(), starPosition.getY()); }
+
+                @Override
+                public long getStarMass() { return starMass; }
+
+                @Override
+                public PlanetSnapshot next() {
+                    if(lastNumber == Integer.MAX_VALUE)
+                        return null;
+                    StampedLock lock = star.getLock();
+                    long stamp = lock.readLock();
+                    try {
+                        List<Planet> planets = star.getPlanets();
+                        int index = Satellite.insertionIndex(planets, lastNumber + 1);
+                        if(index == planets.size())
+                            return null;
+                        PlanetSnapshot planet = planets.get(index).snapshot();
+                        lastNumber = planet.getNumber();
+                        return planet;
+                    } finally {
+                        lock.unlockRead(stamp);
+                    }
+                }
+
+                @Override
+                public void close() {}
+            };
+        }
+    }
+
+    private SystemDiff() {}
+
+    /**
+     * Compares two live systems.
+     * @param before The first system.
+     * @param after The second system.
+     * @return The differences, in order of planet and moon number.
+     * @see Source#of(SolarSystem)
+     */
+    public static Stream<Difference> diff(SolarSystem before, SolarSystem after) {
+        return diff(Source.of(before), Source.of(after));
+    }
+
+    /**
+     * Compares two snapshots.
+     * @param before The first system.
+     * @param after The second system.
+     * @return The differences, in order of planet and moon number.
+     */
+    public static Stream<Difference> diff(SystemSnapshot before, SystemSnapshot after) {
+        return diff(Source.of(before), Source.of(after));
+    }
+
+    /**
+     * Compares two systems read one planet at a time. The star comes first, then every planet followed
+     * by its moons, except that the moons of a removed planet come before it, so that the differences
+     * can be applied in order.
+     * @param before The first system, closed with the stream.
+     * @param after The second system, closed with the stream.
+     * @return The lazy stream of the differences, an {@link UncheckedIOException} if a source fails.
+     */
+    public static Stream<Difference> diff(Source before, Source after) {
+        return StreamSupport.stream(new Merge(before, after), false).onClose(() -> {
+            try(before; after) {
+                //Both sources are closed, even if the first one fails.
+            } catch(IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    //Merge-join of the planets of two sources, it keeps the differences of the current planets only.
+    private static final class Merge extends Spliterators.AbstractSpliterator<Difference> {
+        private final Source before;
+        private final Source after;
+        private final String starIdentifier;
+        private final ArrayDeque<Difference> pending = new ArrayDeque<>();
+        private boolean started = false;
+        private PlanetSnapshot beforePlanet;
+        private PlanetSnapshot afterPlanet;
+
+        private Merge(Source before, Source after) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+            this.before = before;
+            this.after = after;
+            this.starIdentifier = before.getStarIdentifier();
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Difference> action) {
+            try {
+                while(pending.isEmpty()) {
+                    if(!step())
+                        return false;
+                }
+            } catch(IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            action.accept(pending.poll());
+            return true;
+        }
+
+        //Compares the star or the next planets, false at the end of both sources.
+        private boolean step() throws IOException {
+            if(!started) {
+                started = true;
+                beforePlanet = before.next();
+                afterPlanet = after.next();
+                Position oldPosition = before.getStarPosition();
+                Position newPosition = after.getStarPosition();
+                compare(starIdentifier, 0, 0, oldPosition.getX(), oldPosition.getY(), before.getStarMass(),
+                        newPosition.getX(), newPosition.getY(), after.getStarMass());
+                return true;
+            }
+            if(beforePlanet == null && afterPlanet == null)
+                return false;
+
+            if(afterPlanet == null || (beforePlanet != null && beforePlanet.getNumber() < afterPlanet.getNumber())) {
+                String identifier = planetIdentifier(beforePlanet.getNumber());
+                for(int i = 0; i < beforePlanet.getMoonCount(); i++)
+                    removedMoon(identifier, beforePlanet, i);
+                pending.add(new Difference(Type.REMOVED, identifier, beforePlanet.getNumber(), 0, beforePlanet.getX(),
+                        beforePlanet.getY(), beforePlanet.getMass(), 0, 0, 0));
+                beforePlanet = before.next();
+            } else if(beforePlanet == null || afterPlanet.getNumber() < beforePlanet.getNumber()) {
+                String identifier = planetIdentifier(afterPlanet.getNumber());
+                pending.add(new Difference(Type.ADDED, identifier, afterPlanet.getNumber(), 0, 0, 0, 0,
+                        afterPlanet.getX(), afterPlanet.getY(), afterPlanet.getMass()));
+                for(int i = 0; i < afterPlanet.getMoonCount(); i++)
+                    addedMoon(identifier, afterPlanet, i);
+                afterPlanet = after.next();
+            } else {
+                comparePlanets(beforePlanet, afterPlanet);
+                beforePlanet = before.next();
+                afterPlanet = after.next();
+            }
+            return true;
+        }
+
+        //Compares two planets with the same number and merges their moons.
+        private void comparePlanets(PlanetSnapshot oldPlanet, PlanetSnapshot newPlanet) {
+            String identifier = planetIdentifier(oldPlanet.getNumber());
+            compare(identifier, oldPlanet.getNumber(), 0, oldPlanet.getX(), oldPlanet.getY(), oldPlanet.getMass(),
+                    newPlanet.getX(), newPlanet.getY(), newPlanet.getMass());
+
+            int oldIndex = 0;
+            int newIndex = 0;
+            while(oldIndex < oldPlanet.getMoonCount() || newIndex < newPlanet.getMoonCount()) {
+                if(newIndex == newPlanet.getMoonCount() || (oldIndex < oldPlanet.getMoonCount()
+                        && oldPlanet.getMoonNumber(oldIndex) < newPlanet.getMoonNumber(newIndex))) {
+                    removedMoon(identifier, oldPlanet, oldIndex++);
+                } else if(oldIndex == oldPlanet.getMoonCount()
+                        || newPlanet.getMoonNumber(newIndex) < oldPlanet.getMoonNumber(oldIndex)) {
+                    addedMoon(identifier, newPlanet, newIndex++);
+                } else {
+                    int number = oldPlanet.getMoonNumber(oldIndex);
+                    compare(identifier + "M" + number, oldPlanet.getNumber(), number, oldPlanet.getMoonX(oldIndex),
+                            oldPlanet.getMoonY(oldIndex), oldPlanet.getMoonMass(oldIndex), newPlanet.getMoonX(newIndex),
+                            newPlanet.getMoonY(newIndex), newPlanet.getMoonMass(newIndex));
+                    oldIndex++;
+                    newIndex++;
+                }
+            }
+        }
+
+        private void compare(String identifier, int planetNumber, int moonNumber, double oldX, double oldY,
+                             long oldMass, double newX, double newY, long newMass) {
+            if(oldX != newX || oldY != newY || oldMass != newMass)
+                pending.add(new Difference(Type.CHANGED, identifier, planetNumber, moonNumber, oldX, oldY, oldMass,
+                        newX, newY, newMass));
+        }
+
+        private void removedMoon(String planetIdentifier, PlanetSnapshot planet, int index) {
+            int number = planet.getMoonNumber(index);
+            pending.add(new Difference(Type.REMOVED, planetIdentifier + "M" + number, planet.getNumber(), number,
+                    planet.getMoonX(index), planet.getMoonY(index), planet.getMoonMass(index), 0, 0, 0));
+        }
+
+        private void addedMoon(String planetIdentifier, PlanetSnapshot planet, int index) {
+            int number = planet.getMoonNumber(index);
+            pending.add(new Difference(Type.ADDED, planetIdentifier + "M" + number, planet.getNumber(), number,
+                    0, 0, 0, planet.getMoonX(index), planet.getMoonY(index), planet.getMoonMass(index)));
+        }
+
+        private String planetIdentifier(int number) {
+            return starIdentifier + "P" + number;
+        }
+    }
+
+    /**
+     * Applies differences as a patch, in order. Added bodies keep their number, so a system equal to the
+     * first one of the diff becomes equal to the second one.
+     * @param system The system to modify.
+     * @param differences The differences, usually a stream returned by a diff.
+     * @return The number of differences applied.
+     * @throws CelestialBodyNotFoundException If a body to change or remove, or the planet of a moon to
+     * add, is not in the system. The differences before it remain applied.
+     * @throws IllegalStateException If a body to add is already in the system, or the star is added or
+     * removed.
+     */
+    public static long apply(SolarSystem system, Stream<Difference> differences) throws CelestialBodyNotFoundException {
+        Star star = system.getStar();
+        long applied = 0;
+        Iterator<Difference> iterator = differences.iterator();
+        while(iterator.hasNext()) {
+            apply(star, iterator.next());
+            applied++;
+        }
+        return applied;
+    }
+
+    private static void apply(Star star, Difference difference) throws CelestialBodyNotFoundException {
+        if(difference.planetNumber == 0) {
+            if(difference.type != Type.CHANGED)
+                throw new IllegalStateException("The star of a system cannot be added or removed");
+            star.update(difference.getNewPosition(), difference.newMass);
+            return;
+        }
+
+        //Other writers may change the lists meanwhile, so the bodies are looked up under the lock.
+        Planet planet;
+        Moon moon = null;
+        StampedLock lock = star.getLock();
+        long stamp = lock.readLock();
+        try {
+            planet = Satellite.findByNumber(star.getPlanets(), difference.planetNumber);
+            if(planet != null && difference.moonNumber != 0)
+                moon = Satellite.findByNumber(planet.getMoons(), difference.moonNumber);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+
+        if(difference.moonNumber == 0) {
+            if(difference.type == Type.ADDED) {
+                if(planet != null)
+                    throw new IllegalStateException("The planet " + planet.getIdentifier() + " already exists");
+                star.restorePlanet(difference.planetNumber, difference.getNewPosition(), difference.newMass);
+                return;
+            }
+            if(planet == null)
+                throw new CelestialBodyNotFoundException(star.getIdentifier() + "P" + difference.planetNumber);
+            if(difference.type == Type.REMOVED)
+                planet.removeFromSystem();
+            else
+                planet.update(difference.getNewPosition(), difference.newMass);
+            return;
+        }
+
+        if(planet == null)
+            throw new CelestialBodyNotFoundException(star.getIdentifier() + "P" + difference.planetNumber);
+        if(difference.type == Type.ADDED) {
+            if(moon != null)
+                throw new IllegalStateException("The moon " + moon.getIdentifier() + " already exists");
+            planet.restoreMoon(difference.moonNumber, difference.getNewPosition(), difference.newMass);
+            return;
+        }
+        if(moon == null)
+            throw new CelestialBodyNotFoundException(planet.getIdentifier() + "M" + difference.moonNumber);
+        if(difference.type == Type.REMOVED)
+            moon.removeFromSystem();
+        else
+            moon.update(difference.getNewPosition(), difference.newMass);
+    }
+}
@@ -0,0 +1,95 @@
+package planetarium.solarsystem;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Secondary indexes of a solar system on the mass and on the orbiting radius of planets and moons.
+ * <p>
+ * They are kept up to date as a {@link SystemListener}, so queries such as the heaviest moons or the
+ * planets within a range of radii do not need to walk the whole system.
+ * @see SolarSystem#getIndexes()
+ * @see SortedIndex
+ */
+public final class SystemIndexes implements SystemListener {
+    private final SortedIndex<Planet> planetsByMass = new SortedIndex<>(Planet::getMass);
+    private final SortedIndex<Planet> planetsByRadius = new SortedIndex<>(Planet::distanceToParent);
+    private final SortedIndex<Moon> moonsByMass = new SortedIndex<>(Moon::getMass);
+    private final SortedIndex<Moon> moonsByRadius = new SortedIndex<>(Moon::distanceToParent);
+
+    //Indexes the bodies already in the system, the caller has to hold the lock of the star.
+    SystemIndexes(Star star) {
+        List<Moon> moons = new ArrayList<>();
+        for(Planet planet : star.getPlanets())
+            moons.addAll(planet.getMoons());
+        planetsByMass.addAll(star.getPlanets());
+        planetsByRadius.addAll(star.getPlanets());
+        moonsByMass.addAll(moons);
+        moonsByRadius.addAll(moons);
+    }
+
+    /**
+     * @return The planets sorted by mass.
+     */
+    public SortedIndex<Planet> getPlanetsByMass() { return planetsByMass; }
+
+    /**
+     * @return The planets sorted by distance from their star.
+     */
+    public SortedIndex<Planet> getPlanetsByRadius() { return planetsByRadius; }
+
+    /**
+     * @return The moons sorted by mass.
+     */
+    public SortedIndex<Moon> getMoonsByMass() { return moonsByMass; }
+
+    /**
+     * @return The moons sorted by distance from their planet.
+     */
+    public SortedIndex<Moon> getMoonsByRadius() { return moonsByRadius; }
+
+    @Override
+    public void planetAdded(Planet planet) {
+        planetsByMass.add(planet);
+        planetsByRadius.add(planet);
+    }
+
+    @Override
+    public void moonAdded(Moon moon) {
+        moonsByMass.add(moon);
+        moonsByRadius.add(moon);
+    }
+
+    @Override
+    public void planetRemoved(Planet planet) {
+        planetsByMass.remove(planet);
+        planetsByRadius.remove(planet);
+        for(Moon moon : planet.getMoons())
+            moonRemoved(moon);
+    }
+
+    @Override
+    public void moonRemoved(Moon moon) {
+        moonsByMass.remove(moon);
+        moonsByRadius.remove(moon);
+    }
+
+    @Override
+    public void bodyUpdated(CelestialBody body, Position oldPosition, long oldMass) {
+        if(body instanceof Planet planet) {
+            planetsByMass.update(planet, oldMass);
+            planetsByRadius.update(planet, Satellite.radiusOf(oldPosition));
+        } else if(body instanceof Moon moon) {
+            moonsByMass.update(moon, oldMass);
+            moonsByRadius.update(moon, Satellite.radiusOf(oldPosition));
+        }
+    }
+
+    @Override
+    public void allPlanetsRemoved() {
+        planetsByMass.clear();
+        planetsByRadius.clear();
+        moonsByMass.clear();
+        moonsByRadius.clear();
+    }
+}
@@ -0,0 +1,71 @@
+package planetarium.solarsystem;
+
+import java.util.List;
+
+/**
+ * Receives the modifications of a solar system.
+ * <p>
+ * The methods are called by the thread that modifies the system while it holds the write lock, in the
+ * same order as the modifications, so they have to be short and must not modify the system themselves.
+ * Every method does nothing by default.
+ * @see SolarSystem#addListener(SystemListener)
+ */
+public interface SystemListener {
+    /**
+     * Called after a new planet starts orbiting the star.
+     * @param planet The new planet.
+     */
+    default void planetAdded(Planet planet) {}
+
+    /**
+     * Called after a new moon starts orbiting a planet.
+     * @param moon The new moon.
+     */
+    default void moonAdded(Moon moon) {}
+
+    /**
+     * Called after a planet, together with its moons, is removed from the system.
+     * @param planet The removed planet, still referencing its star.
+     */
+    default void planetRemoved(Planet planet) {}
+
+    /**
+     * Called after a moon is removed from its planet.
+     * @param moon The removed moon, still referencing its planet.
+     */
+    default void moonRemoved(Moon moon) {}
+
+    /**
+     * Called after some planets, together with their moons, are removed from the system at once.
+     * By default it calls {@link #planetRemoved(Planet)} for each of them.
+     * @param planets The removed planets in order of number, still referencing their star.
+     */
+    default void planetsRemoved(List<Planet> planets) {
+        for(Planet planet : planets)
+            planetRemoved(planet);
+    }
+
+    /**
+     * Called after some moons of a planet are removed at once.
+     * By default it calls {@link #moonRemoved(Moon)} for each of them.
+     * @param planet The planet the moons orbited.
+     * @param moons The removed moons in order of number, still referencing their planet.
+     */
+    default void moonsRemoved(Planet planet, List<Moon> moons) {
+        for(Moon moon : moons)
+            moonRemoved(moon);
+    }
+
+    /**
+     * Called after a celestial body is moved or its mass is changed.
+     * @param body The updated body, already with the new position and mass.
+     * @param oldPosition The previous position of the body, relative to its parent.
+     * @param oldMass The previous mass of the body.
+     */
+    default void bodyUpdated(CelestialBody body, Position oldPosition, long oldMass) {}
+
+    /**
+     * Called after all planets and moons of the system are removed.
+     */
+    default void allPlanetsRemoved() {}
+}
@@ -0,0 +1,260 @@
+package planetarium.solarsystem;
+
+import planetarium.solarsystem.error.OperationCancelledException;
+import planetarium.solarsystem.event.CollisionScanEvent;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Immutable copy of a solar system at one version.
+ * <p>
+ * A snapshot never changes, so long analytics can run on it while the live system keeps being edited.
+ * Snapshots share the {@link PlanetSnapshot} of every planet whose moons did not change, so taking a
+ * new one costs only the copy of the modified planets plus one reference per planet.
+ * A reader pins a version simply by keeping its snapshot; versions nobody references anymore are
+ * reclaimed by the garbage collector.
+ * @see SolarSystem#snapshot()
+ */
+public final class SystemSnapshot {
+    private final long version;
+    private final String starIdentifier;
+    private final double starX;
+    private final double starY;
+    private final long starMass;
+    private final int planetCounter;
+    private final List<PlanetSnapshot> planets;
+
+    //Copies the star and reuses the cached planet snapshots, the caller has to hold the lock of the star.
+    SystemSnapshot(Star star) {
+        Position starPosition = star.getAbsolutePosition();
+        version = star.getVersion();
+        starIdentifier = star.getIdentifier();
+        starX = starPosition.getX();
+        starY = starPosition.getY();
+        starMass = star.getMass();
+        planetCounter = star.getNumberOfPlanets();
+
+        PlanetSnapshot[] planetSnapshots = new PlanetSnapshot[star.getPlanets().size()];
+        for(int i = 0; i < planetSnapshots.length; i++)
+            planetSnapshots[i] = star.getPlanets().get(i).snapshot();
+        planets = Collections.unmodifiableList(Arrays.asList(planetSnapshots));
+    }
+
+    /**
+     * @return The version of the system the snapshot was taken at, it grows with every modification.
+     */
+    public long getVersion() { return version; }
+
+    /**
+     * @return The identifier of the star.
+     */
+    public String getStarIdentifier() { return starIdentifier; }
+
+    /**
+     * @return The absolute position of the star.
+     */
+    public Position getStarPosition() { return new Position(starX, starY); }
+
+    /**
+     * @return The mass of the star.
+     */
+    public long getStarMass() { return starMass; }
+
+    /**
+     * @return The number of planets ever created around the star, the next planet gets the following number.
+     */
+    public int getPlanetCounter() { return planetCounter; }
+
+    /**
+     * @return The planets of the system, in the same order as the live list.
+     */
+    public List<PlanetSnapshot> getPlanets() { return planets; }
+
+    /**
+     * Calculates the center of mass of the system as it was at the snapshot's version.
+     * <p>
+     * The moons of every planet are summed once per planet snapshot with {@link MassKernel}, so only the
+     * planets that changed since the previous snapshot cost more than a few operations.
+     * The result matches adding the weighted position of every body within the tolerance of the kernel.
+     * @return The position of the center of mass of the system.
+     * @see SolarSystem#getCenterOfMass()
+     */
+    public Position getCenterOfMass() {
+        long systemMass = starMass;
+        MassKernel.CompensatedSum weightedX = new MassKernel.CompensatedSum();
+        MassKernel.CompensatedSum weightedY = new MassKernel.CompensatedSum();
+        weightedX.add(starX * starMass);
+        weightedY.add(starY * starMass);
+
+        for(PlanetSnapshot planet : planets) {
+            double planetX = starX + planet.getX();
+            double planetY = starY + planet.getY();
+            //The moons' absolute positions are the planet's plus their relative ones.
+            long subsystemMass = planet.getMass() + planet.getMoonsTotalMass();
+            systemMass += subsystemMass;
+            weightedX.add(planetX * subsystemMass + planet.getMoonsWeightedX());
+            weightedY.add(planetY * subsystemMass + planet.getMoonsWeightedY());
+        }
+
+        return new Position(weightedX.value(), weightedY.value()).multiplyBy(1.0/systemMass);
+    }
+
+    /**
+     * @return The number of bodies in the snapshot: the star, the planets and their moons.
+     */
+    public long getBodyCount() {
+        long bodies = 1 + planets.size();
+        for(PlanetSnapshot planet : planets)
+            bodies += planet.getMoonCount();
+        return bodies;
+    }
+
+    /**
+     * Checks for all types of possible collisions in the snapshot, return true if found.
+     * @return True if there are possible collisions, false if not.
+     * @see SolarSystem#detectCollisions()
+     */
+    public boolean detectCollisions() {
+        try {
+            return detectCollisions(new ProgressMonitor());
+        } catch(OperationCancelledException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Checks for all types of possible collisions in the snapshot, return true if found.
+     * The progress is measured in pairs of bodies examined, and the scan can be cancelled at any time
+     * since the snapshot is never modified.
+     * @param monitor The monitor receiving the progress and checked for cancellation.
+     * @return True if there are possible collisions, false if not.
+     * @throws OperationCancelledException If the monitor is cancelled before the end of the scan.
+     */
+    public boolean detectCollisions(ProgressMonitor monitor) throws OperationCancelledException {
+        CollisionScanEvent scan = new CollisionScanEvent();
+        scan.begin();
+        scan.version = version;
+        scan.planets = planets.size();
+        monitor.setTotal(countPairs());
+        try {
+            scan.collisionFound = checkCollisionBetweenPlanets(scan, monitor) || checkCollisionsBetweenMoons(scan, monitor)
+                    || checkCollisionStarAndMoons(scan, monitor) || checkCollisionPlanetsAndMoons(scan, monitor);
+        } finally {
+            scan.commit();
+        }
+        return scan.collisionFound;
+    }
+
+    //Pairs examined by a scan that finds no collision.
+    private long countPairs() {
+        long moons = 0;
+        long squaredMoons = 0;
+        for(PlanetSnapshot planet : planets) {
+            moons += planet.getMoonCount();
+            squaredMoons += (long) planet.getMoonCount() * planet.getMoonCount();
+        }
+        //Planets, moons of every pair of planets, moons with the star, moons with every planet.
+        return planets.size() + (moons * moons + squaredMoons) / 2 + moons + planets.size() * moons;
+    }
+
+    //Check collisions between planets
+    //Returns true if found
+    private boolean checkCollisionBetweenPlanets(CollisionScanEvent scan, ProgressMonitor monitor)
+            throws OperationCancelledException {
+        monitor.checkCancelled();
+        Set<Double> distancesFromStar = new HashSet<>();
+
+        for(PlanetSnapshot planet : planets) {
+            scan.pairsExamined++;
+            if(!distancesFromStar.add(planet.distanceToParent()))
+                return true;
+        }
+        monitor.advance(planets.size());
+        return false;
+    }
+
+    //Check collisions of moons with the star
+    //Returns true if found
+    private boolean checkCollisionStarAndMoons(CollisionScanEvent scan, ProgressMonitor monitor)
+            throws OperationCancelledException {
+        for(PlanetSnapshot planet : planets) {
+            monitor.checkCancelled();
+            monitor.advance(planet.getMoonCount());
+            for(int i = 0; i < planet.getMoonCount(); i++) {
+                scan.pairsExamined++;
+                if(planet.distanceToParent() <= planet.moonDistanceToParent(i))
+                    return true;
+            }
+        }
+
+        return false;
+    }
+
+    //Check collisions within moons.
+    //Returns true if found
+    private boolean checkCollisionsBetweenMoons(CollisionScanEvent scan, ProgressMonitor monitor)
+            throws OperationCancelledException {
+        for (int i = 0; i < planets.size(); i++) {
+            for (int j = i; j < planets.size(); j++) {
+                PlanetSnapshot first = planets.get(i);
+                PlanetSnapshot second = planets.get(j);
+                monitor.checkCancelled();
+                if(first.getMoonCount() > 0 && second.getMoonCount() > 0)
+                    monitor.advance((long) first.getMoonCount() * second.getMoonCount());
+
+                for (int firstMoon = 0; firstMoon < first.getMoonCount(); firstMoon++) {
+                    for (int secondMoon = 0; secondMoon < second.getMoonCount(); secondMoon++) {
+                        scan.pairsExamined++;
+                        if(canMoonsCollide(first, firstMoon, second, secondMoon)){
+                            return true;
+                        }
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    //Checks if two moons can collide
+    private boolean canMoonsCollide(PlanetSnapshot firstPlanet, int first, PlanetSnapshot secondPlanet, int second){
+        //If the two moons are from the same planet they collide if they have the same orbiting radius.
+        if(firstPlanet == secondPlanet){
+            return (firstPlanet.moonDistanceToParent(first) == secondPlanet.moonDistanceToParent(second));
+        }
+
+        //equivalent of the distance between the two planets if they are aligned in their orbits.
+        final double distanceToStarDifference =
+                Math.abs( firstPlanet.distanceToParent() - secondPlanet.distanceToParent() );
+
+        return (firstPlanet.moonDistanceToParent(first) + secondPlanet.moonDistanceToParent(second)
+                >= distanceToStarDifference);
+    }
+
+    //Checks collisions within planets and moons of other planets
+    //Returns true if found
+    private boolean checkCollisionPlanetsAndMoons(CollisionScanEvent scan, ProgressMonitor monitor)
+            throws OperationCancelledException {
+        for (PlanetSnapshot firstPlanet : planets) {
+            for (PlanetSnapshot otherPlanet : planets) {
+                monitor.checkCancelled();
+                if(otherPlanet.getMoonCount() > 0)
+                    monitor.advance(otherPlanet.getMoonCount());
+                //Distance between the two planets if they were aligned in their orbits.
+                final double distanceToStarDifference =
+                        Math.abs(firstPlanet.distanceToParent() - otherPlanet.distanceToParent());
+
+                for (int i = 0; i < otherPlanet.getMoonCount(); i++) {
+                    scan.pairsExamined++;
+                    if (otherPlanet.moonDistanceToParent(i) >= distanceToStarDifference)
+                        return true;
+                }
+            }
+        }
+
+        return false;
+    }
+}
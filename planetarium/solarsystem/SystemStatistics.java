@@ -0,0 +1,279 @@
+package planetarium.solarsystem;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Statistics of a solar system at one version: distributions of mass and orbiting radius of planets and
+ * moons, distribution of the number of moons per planet and bounding box of the bodies.
+ * <p>
+ * They are computed in a single parallel pass over the planets of a snapshot. Every thread fills its own
+ * accumulator with primitive fields only, and the accumulators are merged at the end: minimum, maximum
+ * and histogram bins simply combine, mean and variance with the pairwise formula of Chan et al., which
+ * is as accurate as Welford's running update.
+ * @see SolarSystem#getStatistics()
+ */
+public final class SystemStatistics {
+    /**
+     * Number of bins of the histograms: bin 0 for the values below 1, then bin k for the values
+     * from 2^(k-1) to 2^k.
+     */
+    public static final int BINS = 65;
+
+    /**
+     * Distribution of a quantity: count, minimum, maximum, mean, variance and a histogram with bins of
+     * logarithmic width.
+     */
+    public static final class Distribution {
+        private long count = 0;
+        private double min = Double.POSITIVE_INFINITY;
+        private double max = Double.NEGATIVE_INFINITY;
+        private double mean = 0;
+        //Sum of the squared differences from the mean.
+        private double squaredDeviations = 0;
+        private final long[] histogram = new long[BINS];
+
+        private Distribution() {}
+
+        //Adds a value, updating the mean with Welford's formula.
+        private void add(double value) {
+            count++;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            double delta = value - mean;
+            mean += delta / count;
+            squaredDeviations += delta * (value - mean);
+            histogram[bin(value)]++;
+        }
+
+        //Adds the values of another distribution.
+        private void merge(Distribution other) {
+            if(other.count == 0)
+                return;
+            long total = count + other.count;
+            double delta = other.mean - mean;
+            mean += delta * other.count / total;
+            squaredDeviations += other.squaredDeviations + delta * delta * ((double) count * other.count / total);
+            count = total;
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+            for(int i = 0; i < BINS; i++)
+                histogram[i] += other.histogram[i];
+        }
+
+        /**
+         * @return The number of values.
+         */
+        public long getCount() { return count; }
+
+        /**
+         * @return The smallest value, NaN without values.
+         */
+        public double getMin() { return count == 0 ? Double.NaN : min; }
+
+        /**
+         * @return The largest value, NaN without values.
+         */
+        public double getMax() { return count == 0 ? Double.NaN : max; }
+
+        /**
+         * @return The mean of the values, NaN without values.
+         */
+        public double getMean() { return count == 0 ? Double.NaN : mean; }
+
+        /**
+         * @return The population variance of the values, NaN without values.
+         */
+        public double getVariance() { return count == 0 ? Double.NaN : squaredDeviations / count; }
+
+        /**
+         * @param bin The bin, between 0 and {@value #BINS} excluded.
+         * @return The number of values in the bin.
+         * @see #binLowerBound(int)
+         */
+        public long getBinCount(int bin) { return histogram[bin]; }
+
+        @Override
+        public String toString() {
+            if(count == 0)
+                return "count: 0";
+            return String.format("count: %d\tmin: %.3f\tmax: %.3f\tmean: %.3f\tvariance: %.3f",
+                    count, min, max, mean, getVariance());
+        }
+    }
+
+    /**
+     * @param bin The bin, between 0 and {@value #BINS} excluded.
+     * @return The smallest value of the bin, 0 for the first one.
+     */
+    public static double binLowerBound(int bin) {
+        return bin == 0 ? 0 : Math.scalb(1.0, bin - 1);
+    }
+
+    //Bin of a value, see BINS.
+    private static int bin(double value) {
+        if(!(value >= 1))
+            return 0;
+        return Math.min(BINS - 1, Math.getExponent(value) + 1);
+    }
+
+    //Partial statistics of some planets, one per thread.
+    private static final class Accumulator {
+        private final Distribution planetMass = new Distribution();
+        private final Distribution moonMass = new Distribution();
+        private final Distribution planetRadius = new Distribution();
+        private final Distribution moonRadius = new Distribution();
+        private final Distribution moonsPerPlanet = new Distribution();
+        //Exact total, the distributions keep only the mean.
+        private long totalMass = 0;
+        private double minX = Double.POSITIVE_INFINITY;
+        private double minY = Double.POSITIVE_INFINITY;
+        private double maxX = Double.NEGATIVE_INFINITY;
+        private double maxY = Double.NEGATIVE_INFINITY;
+
+        //Adds a planet and its moons, the positions relative to the star are moved by the star's one.
+        private void add(PlanetSnapshot planet, double starX, double starY) {
+            double planetX = starX + planet.getX();
+            double planetY = starY + planet.getY();
+            totalMass += planet.getMass() + planet.getMoonsTotalMass();
+            planetMass.add(planet.getMass());
+            planetRadius.add(planet.distanceToParent());
+            moonsPerPlanet.add(planet.getMoonCount());
+            include(planetX, planetY);
+            for(int i = 0; i < planet.getMoonCount(); i++) {
+                moonMass.add(planet.getMoonMass(i));
+                moonRadius.add(planet.moonDistanceToParent(i));
+                include(planetX + planet.getMoonX(i), planetY + planet.getMoonY(i));
+            }
+        }
+
+        private void include(double x, double y) {
+            minX = Math.min(minX, x);
+            minY = Math.min(minY, y);
+            maxX = Math.max(maxX, x);
+            maxY = Math.max(maxY, y);
+        }
+
+        private void merge(Accumulator other) {
+            planetMass.merge(other.planetMass);
+            moonMass.merge(other.moonMass);
+            planetRadius.merge(other.planetRadius);
+            moonRadius.merge(other.moonRadius);
+            moonsPerPlanet.merge(other.moonsPerPlanet);
+            totalMass += other.totalMass;
+            include(other.minX, other.minY);
+            include(other.maxX, other.maxY);
+        }
+    }
+
+    private final long version;
+    private final long starMass;
+    private final Accumulator statistics;
+
+    private SystemStatistics(long version, long starMass, Accumulator statistics) {
+        this.version = version;
+        this.starMass = starMass;
+        this.statistics = statistics;
+    }
+
+    /**
+     * Computes the statistics of a snapshot in a single parallel pass.
+     * @param snapshot The system.
+     * @return The statistics.
+     */
+    public static SystemStatistics of(SystemSnapshot snapshot) {
+        List<PlanetSnapshot> planets = snapshot.getPlanets();
+        Position star = snapshot.getStarPosition();
+        Accumulator statistics = IntStream.range(0, planets.size()).parallel().collect(Accumulator::new,
+                (accumulator, index) -> accumulator.add(planets.get(index), star.getX(), star.getY()),
+                Accumulator::merge);
+        statistics.include(star.getX(), star.getY());
+        return new SystemStatistics(snapshot.getVersion(), snapshot.getStarMass(), statistics);
+    }
+
+    /**
+     * @return The version of the system the statistics were computed on.
+     */
+    public long getVersion() { return version; }
+
+    /**
+     * @return The number of bodies: the star, the planets and their moons.
+     */
+    public long getBodyCount() {
+        return 1 + statistics.planetMass.getCount() + statistics.moonMass.getCount();
+    }
+
+    /**
+     * @return The mass of the whole system.
+     */
+    public long getTotalMass() {
+        return starMass + statistics.totalMass;
+    }
+
+    /**
+     * @return The distribution of the masses of the planets.
+     */
+    public Distribution getPlanetMass() { return statistics.planetMass; }
+
+    /**
+     * @return The distribution of the masses of the moons.
+     */
+    public Distribution getMoonMass() { return statistics.moonMass; }
+
+    /**
+     * @return The distribution of the orbiting radius of the planets around the star.
+     */
+    public Distribution getPlanetRadius() { return statistics.planetRadius; }
+
+    /**
+     * @return The distribution of the orbiting radius of the moons around their planets.
+     */
+    public Distribution getMoonRadius() { return statistics.moonRadius; }
+
+    /**
+     * @return The distribution of the number of moons of every planet.
+     */
+    public Distribution getMoonsPerPlanet() { return statistics.moonsPerPlanet; }
+
+    /**
+     * @return The lower left corner of the smallest rectangle containing the absolute position of every body.
+     */
+    public Position getBoundingBoxMin() { return new Position(statistics.minX, statistics.minY); }
+
+    /**
+     * @return The upper right corner of the smallest rectangle containing the absolute position of every body.
+     */
+    public Position getBoundingBoxMax() { return new Position(statistics.maxX, statistics.maxY); }
+
+    /**
+     * Writes the statistics as a text report, histograms included.
+     * @return The report, one line per value or bin.
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("bodies: %d\t\ttotal mass: %d%n", getBodyCount(), getTotalMass()));
+        report.append(String.format("bounding box: %s - %s%n", getBoundingBoxMin(), getBoundingBoxMax()));
+        appendDistribution(report, "planet mass", getPlanetMass());
+        appendDistribution(report, "moon mass", getMoonMass());
+        appendDistribution(report, "planet orbiting radius", getPlanetRadius());
+        appendDistribution(report, "moon orbiting radius", getMoonRadius());
+        appendDistribution(report, "moons per planet", getMoonsPerPlanet());
+        return report.toString();
+    }
+
+    //Summary of a distribution followed by its non-empty bins, with a bar proportional to the count.
+    private static void appendDistribution(StringBuilder report, String name, Distribution distribution) {
+        report.append(String.format("%n%s\t%s%n", name, distribution));
+        long largest = 0;
+        for(int bin = 0; bin < BINS; bin++)
+            largest = Math.max(largest, distribution.getBinCount(bin));
+        for(int bin = 0; bin < BINS; bin++) {
+            long binCount = distribution.getBinCount(bin);
+            if(binCount == 0)
+                continue;
+            String upper = (bin == BINS - 1 ? "" : String.format("%.0f", binLowerBound(bin + 1)));
+            report.append(String.format("  [%.0f, %s)\t%12d  %s%n", binLowerBound(bin), upper, binCount,
+                    "#".repeat((int) Math.max(1, 40 * binCount / largest))));
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package planetarium.solarsystem;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * The tree of a solar system (the star, its planets and their moons) seen as a list of rows, where the
+ * moons of a planet can be collapsed.
+ * <p>
+ * Rows are read on demand from the live lists of the system, so reading a window of rows costs
+ * O(log planets) plus the rows read, whatever the number of moons. The position of every planet's block
+ * of rows is kept in a Fenwick tree over the planets, updated in O(log planets) when a planet is
+ * collapsed or expanded, and rebuilt in O(planets) only when the system is modified.
+ * <p>
+ * A view is meant to be used by a single thread, such as the one of a console pager, while the system
+ * can be modified by others.
+ */
+public final class SystemTreeView {
+    /**
+     * A row of the tree.
+     */
+    public static final class Row {
+        private final CelestialBody body;
+        private final boolean lastPlanet;
+        private final boolean collapsed;
+        private final int moonCount;
+
+        private Row(CelestialBody body, boolean lastPlanet, boolean collapsed, int moonCount) {
+            this.body = body;
+            this.lastPlanet = lastPlanet;
+            this.collapsed = collapsed;
+            this.moonCount = moonCount;
+        }
+
+        /**
+         * @return The body of the row: the star, a planet or a moon.
+         */
+        public CelestialBody getBody() { return body; }
+
+        /**
+         * @return True if the row is the last planet of the system or one of its moons.
+         */
+        public boolean isLastPlanet() { return lastPlanet; }
+
+        /**
+         * @return True if the row is a planet whose moons are collapsed.
+         */
+        public boolean isCollapsed() { return collapsed; }
+
+        /**
+         * @return The number of moons of the planet of the row, 0 for the star.
+         */
+        public int getMoonCount() { return moonCount; }
+    }
+
+    private final SolarSystem system;
+
+    //Planets collapsed by the user, by planet number so they survive the rebuilds.
+    private final BitSet collapsed = new BitSet();
+
+    //Layout at layoutVersion: the rows of the planet at every position, and their prefix sums.
+    private long layoutVersion = -1;
+    private int[] blockSizes = new int[0];
+    private long[] fenwick = new long[1];
+
+    /**
+     * Creates a view of a system with every planet expanded.
+     * @param system The system to show.
+     */
+    public SystemTreeView(SolarSystem system) {
+        this.system = system;
+    }
+
+    /**
+     * @return The number of rows of the tree: the star, the planets and the moons of expanded planets.
+     */
+    public long getRowCount() {
+        StampedLock lock = system.getStar().getLock();
+        long stamp = lock.readLock();
+        try {
+            refreshLayout();
+            return 1 + prefixSum(blockSizes.length);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Reads a window of rows.
+     * @param first The index of the first row, 0 is the star.
+     * @param count The maximum number of rows to read.
+     * @return The rows, fewer than count at the end of the tree.
+     */
+    public List<Row> getRows(long first, int count) {
+        StampedLock lock = system.getStar().getLock();
+        long stamp = lock.readLock();
+        try {
+            refreshLayout();
+            List<Row> rows = new ArrayList<>(count);
+            List<Planet> planets = system.getStar().getPlanets();
+            if(first == 0 && count > 0)
+                rows.add(new Row(system.getStar(), false, false, 0));
+
+            //Position of the first planet block to show and the offset of the first row inside it.
+            long row = Math.max(first - 1, 0);
+            int position = findBlock(row);
+            long offset = row - prefixSum(position);
+            for(; position < planets.size() && rows.size() < count; position++, offset = 0) {
+                Planet planet = planets.get(position);
+                boolean last = position == planets.size() - 1;
+                boolean isCollapsed = collapsed.get(planet.getNumber());
+                List<Moon> moons = planet.getMoons();
+                if(offset == 0)
+                    rows.add(new Row(planet, last, isCollapsed, moons.size()));
+                for(int moon = (int) Math.max(offset - 1, 0); moon < blockSizes[position] - 1 && rows.size() < count; moon++)
+                    rows.add(new Row(moons.get(moon), last, false, moons.size()));
+            }
+            return rows;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Finds the row of a celestial body, expanding its planet if the body is a hidden moon.
+     * @param identifier The identifier of the body.
+     * @return The index of its row, -1 if the body is not in the system.
+     */
+    public long rowOf(String identifier) {
+        StampedLock lock = system.getStar().getLock();
+        long stamp = lock.readLock();
+        try {
+            refreshLayout();
+            Star star = system.getStar();
+            if(identifier.equals(star.getIdentifier()))
+                return 0;
+
+            int moonSeparator = identifier.lastIndexOf('M');
+            String planetIdentifier = (moonSeparator > 0 ? identifier.substring(0, moonSeparator) : identifier);
+            List<Planet> planets = star.getPlanets();
+            int position = Satellite.indexOfNumber(planets, Satellite.numberAfter(planetIdentifier, star.getIdentifier() + "P"));
+            if(position < 0)
+                return -1;
+            Planet planet = planets.get(position);
+            if(identifier.equals(planet.getIdentifier()))
+                return 1 + prefixSum(position);
+
+            int moon = Satellite.indexOfNumber(planet.getMoons(), Satellite.numberAfter(identifier, planet.getIdentifier() + "M"));
+            if(moonSeparator < 0 || moon < 0)
+                return -1;
+            setCollapsed(position, planet, false);
+            return 1 + prefixSum(position) + 1 + moon;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Collapses the moons of a planet if they are shown, shows them otherwise.
+     * @param planetIdentifier The identifier of the planet.
+     * @return False if the planet is not in the system.
+     */
+    public boolean toggle(String planetIdentifier) {
+        StampedLock lock = system.getStar().getLock();
+        long stamp = lock.readLock();
+        try {
+            refreshLayout();
+            Star star = system.getStar();
+            List<Planet> planets = star.getPlanets();
+            int position = Satellite.indexOfNumber(planets, Satellite.numberAfter(planetIdentifier, star.getIdentifier() + "P"));
+            if(position < 0 || !planetIdentifier.equals(planets.get(position).getIdentifier()))
+                return false;
+            Planet planet = planets.get(position);
+            setCollapsed(position, planet, !collapsed.get(planet.getNumber()));
+            return true;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Collapses or expands the moons of every planet.
+     * @param collapse True to collapse them, false to show them.
+     */
+    public void setAllCollapsed(boolean collapse) {
+        StampedLock lock = system.getStar().getLock();
+        long stamp = lock.readLock();
+        try {
+            collapsed.clear();
+            if(collapse) {
+                for(Planet planet : system.getStar().getPlanets())
+                    collapsed.set(planet.getNumber());
+            }
+            layoutVersion = -1;
+            refreshLayout();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Searches the next body whose identifier contains a text, expanding its planet if it is a hidden moon.
+     * The search starts after a row and continues from the star once at the end of the tree.
+     * @param text The text to search, ignoring the case.
+     * @param afterRow The row after which the search starts.
+     * @return The index of the row of the body found, -1 if no identifier contains the text.
+     */
+    public long search(String text, long afterRow) {
+        StampedLock lock = system.getStar().getLock();
+        long stamp = lock.readLock();
+        try {
+            refreshLayout();
+            String wanted = text.toUpperCase();
+            int planetCount = blockSizes.length;
+
+            //Block of the starting row (0 is the star, then the planets) and index of the row inside it.
+            int startBlock = 0;
+            int startIndex = 0;
+            if(afterRow > 0 && afterRow - 1 < prefixSum(planetCount)) {
+                int position = findBlock(afterRow - 1);
+                startBlock = position + 1;
+                startIndex = (int) (afterRow - 1 - prefixSum(position));
+            }
+
+            //The rest of the starting block, the following blocks around the tree, then the starting block again.
+            long found = searchBlock(startBlock, startIndex + 1, Integer.MAX_VALUE, wanted);
+            for(int step = 1; found < 0 && step <= planetCount; step++)
+                found = searchBlock((startBlock + step) % (planetCount + 1), 0, Integer.MAX_VALUE, wanted);
+            if(found < 0)
+                found = searchBlock(startBlock, 0, startIndex, wanted);
+            return found;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    //Searches a block between two indexes included: the star for block 0, otherwise a planet (index 0)
+    //followed by all its moons, even if collapsed. Returns the row found or -1.
+    private long searchBlock(int block, int from, int to, String wanted) {
+        Star star = system.getStar();
+        if(block == 0)
+            return (from == 0 && star.getIdentifier().toUpperCase().contains(wanted) ? 0 : -1);
+
+        int position = block - 1;
+        Planet planet = star.getPlanets().get(position);
+        List<Moon> moons = planet.getMoons();
+        for(int index = from; index <= Math.min(to, moons.size()); index++) {
+            CelestialBody body = (index == 0 ? planet : moons.get(index - 1));
+            if(body.getIdentifier().toUpperCase().contains(wanted)) {
+                if(index > 0)
+                    setCollapsed(position, planet, false);
+                return 1 + prefixSum(position) + index;
+            }
+        }
+        return -1;
+    }
+
+    //Rebuilds the layout if the system changed since the last one, the caller has to hold the lock.
+    private void refreshLayout() {
+        Star star = system.getStar();
+        if(layoutVersion == star.getVersion())
+            return;
+
+        List<Planet> planets = star.getPlanets();
+        blockSizes = new int[planets.size()];
+        fenwick = new long[planets.size() + 1];
+        for(int i = 0; i < blockSizes.length; i++) {
+            Planet planet = planets.get(i);
+            blockSizes[i] = 1 + (collapsed.get(planet.getNumber()) ? 0 : planet.getMoons().size());
+            //Linear construction: every node passes its sum to the node covering it.
+            fenwick[i + 1] += blockSizes[i];
+            int parent = (i + 1) + ((i + 1) & -(i + 1));
+            if(parent < fenwick.length)
+                fenwick[parent] += fenwick[i + 1];
+        }
+        layoutVersion = star.getVersion();
+    }
+
+    //Collapses or expands the planet at a position, updating its block in O(log planets).
+    private void setCollapsed(int position, Planet planet, boolean collapse) {
+        collapsed.set(planet.getNumber(), collapse);
+        int size = 1 + (collapse ? 0 : planet.getMoons().size());
+        for(int i = position + 1; i < fenwick.length; i += i & -i)
+            fenwick[i] += size - blockSizes[position];
+        blockSizes[position] = size;
+    }
+
+    //Rows of the planets before the given position.
+    private long prefixSum(int position) {
+        long sum = 0;
+        for(int i = position; i > 0; i -= i & -i)
+            sum += fenwick[i];
+        return sum;
+    }
+
+    //Position of the planet whose block contains a row, counting rows from the first planet.
+    //Returns the number of planets if the row is past the end.
+    private int findBlock(long row) {
+        int position = 0;
+        long remaining = row;
+        for(int step = Integer.highestOneBit(Math.max(fenwick.length - 1, 1)); step > 0; step >>= 1) {
+            int next = position + step;
+            if(next < fenwick.length && fenwick[next] <= remaining) {
+                position = next;
+                remaining -= fenwick[next];
+            }
+        }
+        return position;
+    }
+}
@@ -0,0 +1,312 @@
+package planetarium.solarsystem;
+
+import planetarium.solarsystem.error.OperationCancelledException;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+/**
+ * Map of a solar system as a pyramid of PNG tiles, written without any display.
+ * <p>
+ * Zoom level z covers the bounding square of the system with 2^z × 2^z tiles of {@value #TILE_SIZE} pixels,
+ * saved as {@code <directory>/<z>/<x>/<y>.png} with tile (0, 0) in the upper left corner, as in web maps.
+ * Every pixel shows how many bodies fall in it, on a logarithmic scale, and their kind: the star in
+ * yellow, the planets in blue and the moons in grey, mixed when they share a pixel. Pixels without bodies
+ * are transparent and tiles without bodies are not written.
+ * <p>
+ * The absolute position of every body is encoded once as a key: the Morton code (bits of x and y
+ * interleaved) of its pixel at the deepest zoom, followed by its kind. After sorting the keys, the bodies
+ * of any tile at any zoom are a contiguous range, since a tile is a node of the quadtree that the Morton
+ * order follows. The pyramid is then rendered as the quadtree itself: every tile is a task that counts the
+ * bodies of its range into its pixels, writes its image and forks the children that are not empty.
+ * The memory used is one long per body, plus one pixel buffer per rendering thread.
+ * @see SolarSystem#exportMap(Path, int, ProgressMonitor)
+ */
+public final class TileMap {
+    /**
+     * Width and height of a tile in pixels.
+     */
+    public static final int TILE_SIZE = 256;
+
+    /**
+     * Deepest zoom level supported, the keys must fit in a long.
+     */
+    public static final int MAX_ZOOM = 20;
+
+    private static final int TILE_BITS = 8;
+    private static final int KIND_BITS = 2;
+    private static final int STAR = 0;
+    private static final int PLANET = 1;
+    private static final int MOON = 2;
+
+    private static final int STAR_COLOR = 0xFFD23C;
+    private static final int PLANET_COLOR = 0x4C8DFF;
+    private static final int MOON_COLOR = 0xB4B4B4;
+    //Bodies in a pixel shown at full brightness, fewer are dimmer.
+    private static final int SATURATION_COUNT = 1 << 10;
+
+    //Pixel counts of a tile per kind, reused by the tasks of a thread.
+    private static final ThreadLocal<int[]> COUNTS = ThreadLocal.withInitial(() -> new int[3 * TILE_SIZE * TILE_SIZE]);
+
+    private final Path directory;
+    private final int maxZoom;
+    private final long[] keys;
+    private final ProgressMonitor monitor;
+    private final AtomicLong tilesWritten = new AtomicLong();
+
+    private TileMap(Path directory, int maxZoom, long[] keys, ProgressMonitor monitor) {
+        this.directory = directory;
+        this.maxZoom = maxZoom;
+        this.keys = keys;
+        this.monitor = monitor;
+    }
+
+    /**
+     * Writes the tiles of a snapshot from zoom 0, a single tile with the whole system, to the given zoom.
+     * The progress is measured in bodies drawn, once per zoom level.
+     * @param snapshot The system to draw.
+     * @param directory The directory of the tiles, created if missing.
+     * @param maxZoom The deepest zoom level, between 0 and {@value #MAX_ZOOM}.
+     * @param monitor The monitor receiving the progress and checked for cancellation between two tiles.
+     * @return The number of tiles written.
+     * @throws IOException If a tile cannot be written.
+     * @throws OperationCancelledException If the monitor is cancelled, some tiles may be written already.
+     * @throws IllegalArgumentException If the zoom is not supported.
+     */
+    public static long export(SystemSnapshot snapshot, Path directory, int maxZoom, ProgressMonitor monitor)
+            throws IOException, OperationCancelledException {
+        if(maxZoom < 0 || maxZoom > MAX_ZOOM)
+            throw new IllegalArgumentException("The zoom has to be between 0 and " + MAX_ZOOM);
+
+        long bodies = snapshot.getBodyCount();
+        if(bodies > Integer.MAX_VALUE - 8)
+            throw new IllegalArgumentException("Too many bodies to draw: " + bodies);
+        monitor.setTotal(bodies * (maxZoom + 1));
+        monitor.checkCancelled();
+
+        long[] keys = encode(snapshot, maxZoom);
+        Arrays.parallelSort(keys);
+        Files.createDirectories(directory);
+
+        TileMap map = new TileMap(directory, maxZoom, keys, monitor);
+        try {
+            map.new Tile(0, 0, 0, 0, keys.length).invoke();
+        } catch(UncheckedIOException e) {
+            throw e.getCause();
+        }
+        monitor.checkCancelled();
+        return map.tilesWritten.get();
+    }
+
+    //Keys of all the bodies of the snapshot, in the same order as the snapshot.
+    private static long[] encode(SystemSnapshot snapshot, int maxZoom) {
+        List<PlanetSnapshot> planets = snapshot.getPlanets();
+        //First key of every planet: the star comes first, then every planet is followed by its moons.
+        int[] offsets = new int[planets.size() + 1];
+        offsets[0] = 1;
+        for(int i = 0; i < planets.size(); i++)
+            offsets[i + 1] = offsets[i] + 1 + planets.get(i).getMoonCount();
+
+        Position star = snapshot.getStarPosition();
+        double[] bounds = { star.getX(), star.getY(), star.getX(), star.getY() };
+        for(PlanetSnapshot planet : planets) {
+            double planetX = star.getX() + planet.getX();
+            double planetY = star.getY() + planet.getY();
+            include(bounds, planetX, planetY);
+            for(int i = 0; i < planet.getMoonCount(); i++)
+                include(bounds, planetX + planet.getMoonX(i), planetY + planet.getMoonY(i));
+        }
+
+        //Bounding square of the system, slightly larger so that the farthest bodies are not on the border.
+        double side = Math.max(bounds[2] - bounds[0], bounds[3] - bounds[1]) * 1.02;
+        if(side <= 0)
+            side = 1;
+        double left = (bounds[0] + bounds[2] - side) / 2;
+        double top = (bounds[1] + bounds[3] + side) / 2;
+        double pixelsPerUnit = (double) (1L << (maxZoom + TILE_BITS)) / side;
+
+        long[] keys = new long[offsets[planets.size()]];
+        keys[0] = key(star.getX(), star.getY(), left, top, pixelsPerUnit, maxZoom, STAR);
+        IntStream.range(0, planets.size()).parallel().forEach(index -> {
+            PlanetSnapshot planet = planets.get(index);
+            double planetX = star.getX() + planet.getX();
+            double planetY = star.getY() + planet.getY();
+            int offset = offsets[index];
+            keys[offset] = key(planetX, planetY, left, top, pixelsPerUnit, maxZoom, PLANET);
+            for(int i = 0; i < planet.getMoonCount(); i++)
+                keys[offset + 1 + i] = key(planetX + planet.getMoonX(i), planetY + planet.getMoonY(i), left, top,
+                        pixelsPerUnit, maxZoom, MOON);
+        });
+        return keys;
+    }
+
+    //Widens the bounds (minimum x and y, maximum x and y) to include a point.
+    private static void include(double[] bounds, double x, double y) {
+        bounds[0] = Math.min(bounds[0], x);
+        bounds[1] = Math.min(bounds[1], y);
+        bounds[2] = Math.max(bounds[2], x);
+        bounds[3] = Math.max(bounds[3], y);
+    }
+
+    //Key of a body: Morton code of its pixel at the deepest zoom, then its kind.
+    //The y-axis of the images points down, so rows are counted from the top of the square.
+    private static long key(double x, double y, double left, double top, double pixelsPerUnit, int maxZoom, int kind) {
+        long last = (1L << (maxZoom + TILE_BITS)) - 1;
+        long column = Math.min(last, Math.max(0, (long) ((x - left) * pixelsPerUnit)));
+        long row = Math.min(last, Math.max(0, (long) ((top - y) * pixelsPerUnit)));
+        return (interleave(column) | interleave(row) << 1) << KIND_BITS | kind;
+    }
+
+    //Spreads the bits of a value to the even positions.
+    private static long interleave(long value) {
+        value = (value | value << 16) & 0x0000FFFF0000FFFFL;
+        value = (value | value << 8) & 0x00FF00FF00FF00FFL;
+        value = (value | value << 4) & 0x0F0F0F0F0F0F0F0FL;
+        value = (value | value << 2) & 0x3333333333333333L;
+        value = (value | value << 1) & 0x5555555555555555L;
+        return value;
+    }
+
+    //Gathers the bits in the even positions, inverse of interleave().
+    private static long deinterleave(long value) {
+        value &= 0x5555555555555555L;
+        value = (value | value >>> 1) & 0x3333333333333333L;
+        value = (value | value >>> 2) & 0x0F0F0F0F0F0F0F0FL;
+        value = (value | value >>> 4) & 0x00FF00FF00FF00FFL;
+        value = (value | value >>> 8) & 0x0000FFFF0000FFFFL;
+        value = (value | value >>> 16) & 0x00000000FFFFFFFFL;
+        return value;
+    }
+
+    //First index from which the keys are not smaller than the given one.
+    private int lowerBound(long key, int from, int to) {
+        while(from < to) {
+            int middle = (from + to) >>> 1;
+            if(keys[middle] < key)
+                from = middle + 1;
+            else
+                to = middle;
+        }
+        return from;
+    }
+
+    //A tile with the range of keys of its bodies, it renders itself and then its children.
+    private final class Tile extends RecursiveTask<Void> {
+        private static final long serialVersionUID = 1L;
+
+        private final int zoom;
+        private final long column;
+        private final long row;
+        private final int from;
+        private final int to;
+
+        private Tile(int zoom, long column, long row, int from, int to) {
+            this.zoom = zoom;
+            this.column = column;
+            this.row = row;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Void compute() {
+            if(monitor.isCancelled())
+                return null;
+            try {
+                render();
+            } catch(IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            tilesWritten.incrementAndGet();
+            monitor.advance(to - from);
+            if(zoom == maxZoom)
+                return null;
+
+            //The children split the range in four, in Morton order.
+            int childShift = 2 * (maxZoom - zoom - 1 + TILE_BITS) + KIND_BITS;
+            long childPrefix = (interleave(column) | interleave(row) << 1) << 2;
+            List<Tile> children = new ArrayList<>(4);
+            int start = from;
+            for(int quadrant = 0; quadrant < 4; quadrant++) {
+                int end = (quadrant == 3 ? to : lowerBound((childPrefix + quadrant + 1) << childShift, start, to));
+                if(end > start)
+                    children.add(new Tile(zoom + 1, 2 * column + (quadrant & 1), 2 * row + (quadrant >> 1), start, end));
+                start = end;
+            }
+            ForkJoinTask.invokeAll(children);
+            return null;
+        }
+
+        //Counts the bodies in the pixels of the tile and writes the image.
+        private void render() throws IOException {
+            int[] counts = COUNTS.get();
+            Arrays.fill(counts, 0);
+            int pixelShift = maxZoom - zoom;
+            long tileMask = TILE_SIZE - 1;
+            for(int i = from; i < to; i++) {
+                long code = keys[i] >>> KIND_BITS;
+                int x = (int) ((deinterleave(code) >>> pixelShift) & tileMask);
+                int y = (int) ((deinterleave(code >>> 1) >>> pixelShift) & tileMask);
+                counts[(int) (keys[i] & 3) * TILE_SIZE * TILE_SIZE + y * TILE_SIZE + x]++;
+            }
+
+            BufferedImage image = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_ARGB);
+            int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            for(int pixel = 0; pixel < pixels.length; pixel++)
+                pixels[pixel] = color(counts[pixel], counts[TILE_SIZE * TILE_SIZE + pixel],
+                        counts[2 * TILE_SIZE * TILE_SIZE + pixel]);
+            drawStar(counts, pixels);
+
+            Path file = directory.resolve(Integer.toString(zoom)).resolve(Long.toString(column))
+                    .resolve(row + ".png");
+            Files.createDirectories(file.getParent());
+            ImageIO.write(image, "png", file.toFile());
+        }
+
+        //The star is a single body, it is drawn larger to stay visible at every zoom.
+        private void drawStar(int[] counts, int[] pixels) {
+            for(int pixel = 0; pixel < TILE_SIZE * TILE_SIZE; pixel++) {
+                if(counts[pixel] == 0)
+                    continue;
+                int x = pixel % TILE_SIZE;
+                int y = pixel / TILE_SIZE;
+                for(int dy = -1; dy <= 1; dy++) {
+                    for(int dx = -1; dx <= 1; dx++) {
+                        if(x + dx >= 0 && x + dx < TILE_SIZE && y + dy >= 0 && y + dy < TILE_SIZE)
+                            pixels[(y + dy) * TILE_SIZE + x + dx] = 0xFF000000 | STAR_COLOR;
+                    }
+                }
+            }
+        }
+    }
+
+    //Color of a pixel: the kinds mixed by count, brighter with the logarithm of the total.
+    private static int color(int stars, int planets, int moons) {
+        int total = stars + planets + moons;
+        if(total == 0)
+            return 0;
+        double brightness = 0.35 + 0.65 * Math.min(1, Math.log(total) / Math.log(SATURATION_COUNT));
+        double red = 0, green = 0, blue = 0;
+        int[] kindCounts = { stars, planets, moons };
+        int[] kindColors = { STAR_COLOR, PLANET_COLOR, MOON_COLOR };
+        for(int kind = 0; kind < 3; kind++) {
+            double weight = brightness * kindCounts[kind] / total;
+            red += weight * (kindColors[kind] >> 16 & 0xFF);
+            green += weight * (kindColors[kind] >> 8 & 0xFF);
+            blue += weight * (kindColors[kind] & 0xFF);
+        }
+        return 0xFF000000 | (int) red << 16 | (int) green << 8 | (int) blue;
+    }
+}
@@ -0,0 +1,419 @@
+package planetarium.solarsystem;
+
+import planetarium.solarsystem.error.CelestialBodyNotFoundException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Graph of the possible trips between the bodies of a snapshot of a solar system.
+ * <p>
+ * Besides the orbits (moon to planet, planet to star), every two bodies whose absolute positions are
+ * within a range are joined by a direct transfer; every edge weighs the distance between its bodies.
+ * The bodies are stored in primitive arrays: the star is node 0, then the planets, then the moons of
+ * every planet one after the other. The orbit edges follow from this layout, while the transfers are
+ * found through a uniform grid of cells at least as wide as the range (in compressed rows: the nodes
+ * of every cell are contiguous), so only the 3x3 cells around a body are examined and no edge list
+ * has to be kept in memory.
+ * <p>
+ * Routes are found with A*, using the straight distance to the destination as heuristic, and an
+ * indexed binary heap. The search arrays are allocated with the graph and reused by every query, so a
+ * query costs only the nodes it explores.
+ * @see SolarSystem#findRoute(String, String, double)
+ */
+public final class TransferGraph {
+    /**
+     * A route between two bodies.
+     */
+    public static final class Route {
+        private final List<String> identifiers;
+        private final double distance;
+
+        private Route(List<String> identifiers, double distance) {
+            this.identifiers = identifiers;
+            this.distance = distance;
+        }
+
+        /**
+         * @return The identifiers of the bodies of the route, from the start to the end.
+         */
+        public List<String> getIdentifiers() { return identifiers; }
+
+        /**
+         * @return The total distance travelled.
+         */
+        public double getDistance() { return distance; }
+    }
+
+    private final SystemSnapshot snapshot;
+    private final double range;
+    private final int nodeCount;
+    private final int planetCount;
+    //First node of the moons of every planet, and the number of nodes at the end.
+    private final int[] moonBase;
+    private final double[] x;
+    private final double[] y;
+    private final int[] parent;
+
+    private final double minX;
+    private final double minY;
+    private final double cellSize;
+    private final int columns;
+    private final int rows;
+    private final int[] cellStart;
+    private final int[] cellNodes;
+
+    //Search state, valid for a node only if its stamp is the one of the current query.
+    private final double[] distance;
+    private final int[] previous;
+    private final int[] stamp;
+    private int query = 0;
+    private final IndexedHeap heap;
+
+    //Built by SolarSystem from a snapshot.
+    TransferGraph(SystemSnapshot snapshot, double range) {
+        if(!(range >= 0))
+            throw new IllegalArgumentException("The range cannot be negative");
+        this.snapshot = snapshot;
+        this.range = range;
+
+        List<PlanetSnapshot> planets = snapshot.getPlanets();
+        planetCount = planets.size();
+        moonBase = new int[planetCount + 1];
+        int nodes = 1 + planetCount;
+        for(int i = 0; i < planetCount; i++) {
+            moonBase[i] = nodes;
+            nodes += planets.get(i).getMoonCount();
+        }
+        moonBase[planetCount] = nodes;
+        nodeCount = nodes;
+
+        x = new double[nodeCount];
+        y = new double[nodeCount];
+        parent = new int[nodeCount];
+        Position star = snapshot.getStarPosition();
+        x[0] = star.getX();
+        y[0] = star.getY();
+        parent[0] = -1;
+        for(int i = 0; i < planetCount; i++) {
+            PlanetSnapshot planet = planets.get(i);
+            int node = 1 + i;
+            x[node] = x[0] + planet.getX();
+            y[node] = y[0] + planet.getY();
+            parent[node] = 0;
+            for(int moon = 0; moon < planet.getMoonCount(); moon++) {
+                x[moonBase[i] + moon] = x[node] + planet.getMoonX(moon);
+                y[moonBase[i] + moon] = y[node] + planet.getMoonY(moon);
+                parent[moonBase[i] + moon] = node;
+            }
+        }
+
+        //Cells at least as wide as the range, doubled until there are at most about four per node.
+        double minX = x[0], maxX = x[0], minY = y[0], maxY = y[0];
+        for(int node = 1; node < nodeCount; node++) {
+            minX = Math.min(minX, x[node]);
+            maxX = Math.max(maxX, x[node]);
+            minY = Math.min(minY, y[node]);
+            maxY = Math.max(maxY, y[node]);
+        }
+        long maxCells = Math.max(4L * nodeCount, 16);
+        double size = (range > 0 ? range : Math.max(maxX - minX, maxY - minY) + 1);
+        while(cellsAlong(maxX - minX, size) * cellsAlong(maxY - minY, size) > maxCells)
+            size *= 2;
+        this.minX = minX;
+        this.minY = minY;
+        cellSize = size;
+        columns = (int) cellsAlong(maxX - minX, size);
+        rows = (int) cellsAlong(maxY - minY, size);
+
+        cellStart = new int[columns * rows + 1];
+        for(int node = 0; node < nodeCount; node++)
+            cellStart[cellOf(node) + 1]++;
+        for(int cell = 0; cell < columns * rows; cell++)
+            cellStart[cell + 1] += cellStart[cell];
+        cellNodes = new int[nodeCount];
+        int[] filled = new int[columns * rows];
+        for(int node = 0; node < nodeCount; node++) {
+            int cell = cellOf(node);
+            cellNodes[cellStart[cell] + filled[cell]++] = node;
+        }
+
+        distance = new double[nodeCount];
+        previous = new int[nodeCount];
+        stamp = new int[nodeCount];
+        heap = new IndexedHeap(nodeCount);
+    }
+
+    private static long cellsAlong(double extent, double size) {
+        return (long) (extent / size) + 1;
+    }
+
+    private int column(double coordinate) {
+        return Math.min((int) ((coordinate - minX) / cellSize), columns - 1);
+    }
+
+    private int row(double coordinate) {
+        return Math.min((int) ((coordinate - minY) / cellSize), rows - 1);
+    }
+
+    private int cellOf(int node) {
+        return row(y[node]) * columns + column(x[node]);
+    }
+
+    /**
+     * @return The version of the system the graph was built from.
+     */
+    public long getVersion() {
+        return snapshot.getVersion();
+    }
+
+    /**
+     * @return The maximum distance of a direct transfer.
+     */
+    public double getRange() {
+        return range;
+    }
+
+    /**
+     * @return The number of bodies of the graph.
+     */
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * Finds the shortest route between two bodies, following orbits and direct transfers.
+     * @param startIdentifier Identifier of the body at the start of the route.
+     * @param endIdentifier Identifier of the body at the end of the route.
+     * @return The shortest route.
+     * @throws CelestialBodyNotFoundException If either body is not in the graph.
+     */
+    public synchronized Route route(String startIdentifier, String endIdentifier) throws CelestialBodyNotFoundException {
+        int start = nodeOf(startIdentifier);
+        int end = nodeOf(endIdentifier);
+
+        //Stamps of the query: 2 * query for nodes reached, 2 * query + 1 for nodes settled.
+        if(query == Integer.MAX_VALUE / 2) {
+            Arrays.fill(stamp, 0);
+            query = 0;
+        }
+        query++;
+        int reached = 2 * query;
+        int settled = reached + 1;
+
+        heap.clear();
+        distance[start] = 0;
+        previous[start] = -1;
+        stamp[start] = reached;
+        heap.push(start, heuristic(start, end));
+
+        while(!heap.isEmpty()) {
+            int node = heap.pop();
+            stamp[node] = settled;
+            if(node == end)
+                break;
+
+            if(parent[node] >= 0)
+                relax(node, parent[node], end, reached, settled);
+            int firstChild = (node == 0 ? 1 : node <= planetCount ? moonBase[node - 1] : 0);
+            int lastChild = (node == 0 ? planetCount + 1 : node <= planetCount ? moonBase[node] : 0);
+            for(int child = firstChild; child < lastChild; child++)
+                relax(node, child, end, reached, settled);
+
+            if(range > 0) {
+                int column = column(x[node]);
+                int row = row(y[node]);
+                for(int cellRow = Math.max(row - 1, 0); cellRow <= Math.min(row + 1, rows - 1); cellRow++) {
+                    for(int cellColumn = Math.max(column - 1, 0); cellColumn <= Math.min(column + 1, columns - 1); cellColumn++) {
+                        int cell = cellRow * columns + cellColumn;
+                        for(int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+                            int other = cellNodes[i];
+                            if(other != node && distanceBetween(node, other) <= range)
+                                relax(node, other, end, reached, settled);
+                        }
+                    }
+                }
+            }
+        }
+
+        List<String> identifiers = new ArrayList<>();
+        for(int node = end; node >= 0; node = previous[node])
+            identifiers.add(identifierOf(node));
+        Collections.reverse(identifiers);
+        return new Route(Collections.unmodifiableList(identifiers), distance[end]);
+    }
+
+    //Shortens the route to a node through another one, if possible.
+    private void relax(int from, int to, int end, int reached, int settled) {
+        if(stamp[to] == settled)
+            return;
+        double candidate = distance[from] + distanceBetween(from, to);
+        if(stamp[to] != reached) {
+            stamp[to] = reached;
+            distance[to] = candidate;
+            previous[to] = from;
+            heap.push(to, candidate + heuristic(to, end));
+        } else if(candidate < distance[to]) {
+            distance[to] = candidate;
+            previous[to] = from;
+            heap.decrease(to, candidate + heuristic(to, end));
+        }
+    }
+
+    private double distanceBetween(int first, int second) {
+        return Math.hypot(x[first] - x[second], y[first] - y[second]);
+    }
+
+    //Never more than the real distance, since every edge weighs the straight distance of its bodies.
+    private double heuristic(int node, int end) {
+        return distanceBetween(node, end);
+    }
+
+    //Node of a body given its identifier, found with binary searches on the numbers.
+    private int nodeOf(String identifier) throws CelestialBodyNotFoundException {
+        String starIdentifier = snapshot.getStarIdentifier();
+        if(identifier.equals(starIdentifier))
+            return 0;
+
+        int moonSeparator = identifier.lastIndexOf('M');
+        String planetIdentifier = (moonSeparator > 0 ? identifier.substring(0, moonSeparator) : identifier);
+        List<PlanetSnapshot> planets = snapshot.getPlanets();
+        int planetNumber = Satellite.numberAfter(planetIdentifier, starIdentifier + "P");
+        int low = 0;
+        int high = planetCount - 1;
+        while(low <= high) {
+            int middle = (low + high) >>> 1;
+            int number = planets.get(middle).getNumber();
+            if(number < planetNumber)
+                low = middle + 1;
+            else if(number > planetNumber)
+                high = middle - 1;
+            else {
+                PlanetSnapshot planet = planets.get(middle);
+                if(identifier.equals(planet.getIdentifier()))
+                    return 1 + middle;
+                int moon = (moonSeparator > 0 ? indexOfMoon(planet, Satellite.numberAfter(identifier, planetIdentifier + "M")) : -1);
+                if(moon >= 0)
+                    return moonBase[middle] + moon;
+                break;
+            }
+        }
+        throw new CelestialBodyNotFoundException(identifier);
+    }
+
+    private static int indexOfMoon(PlanetSnapshot planet, int moonNumber) {
+        int low = 0;
+        int high = planet.getMoonCount() - 1;
+        while(low <= high) {
+            int middle = (low + high) >>> 1;
+            if(planet.getMoonNumber(middle) < moonNumber)
+                low = middle + 1;
+            else if(planet.getMoonNumber(middle) > moonNumber)
+                high = middle - 1;
+            else
+                return middle;
+        }
+        return -1;
+    }
+
+    private String identifierOf(int node) {
+        if(node == 0)
+            return snapshot.getStarIdentifier();
+        if(node <= planetCount)
+            return snapshot.getPlanets().get(node - 1).getIdentifier();
+
+        //The planet whose moons include the node: the last one starting at or before it.
+        int low = 0;
+        int high = planetCount - 1;
+        while(low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if(moonBase[middle] <= node)
+                low = middle;
+            else
+                high = middle - 1;
+        }
+        return snapshot.getPlanets().get(low).getMoonIdentifier(node - moonBase[low]);
+    }
+
+    /**
+     * Binary min-heap of nodes by key, knowing the position of every node to decrease its key in
+     * O(log n).
+     */
+    private static final class IndexedHeap {
+        private final int[] nodes;
+        private final int[] positions;
+        private final double[] keys;
+        private int size = 0;
+
+        private IndexedHeap(int capacity) {
+            nodes = new int[capacity];
+            positions = new int[capacity];
+            keys = new double[capacity];
+        }
+
+        private void clear() {
+            size = 0;
+        }
+
+        private boolean isEmpty() {
+            return size == 0;
+        }
+
+        private void push(int node, double key) {
+            nodes[size] = node;
+            positions[node] = size;
+            keys[node] = key;
+            siftUp(size++);
+        }
+
+        private void decrease(int node, double key) {
+            keys[node] = key;
+            siftUp(positions[node]);
+        }
+
+        private int pop() {
+            int top = nodes[0];
+            size--;
+            if(size > 0) {
+                nodes[0] = nodes[size];
+                positions[nodes[0]] = 0;
+                siftDown(0);
+            }
+            return top;
+        }
+
+        private void siftUp(int position) {
+            int node = nodes[position];
+            while(position > 0) {
+                int parent = (position - 1) >>> 1;
+                if(keys[nodes[parent]] <= keys[node])
+                    break;
+                nodes[position] = nodes[parent];
+                positions[nodes[position]] = position;
+                position = parent;
+            }
+            nodes[position] = node;
+            positions[node] = position;
+        }
+
+        private void siftDown(int position) {
+            int node = nodes[position];
+            while(true) {
+                int child = 2 * position + 1;
+                if(child >= size)
+                    break;
+                if(child + 1 < size && keys[nodes[child + 1]] < keys[nodes[child]])
+                    child++;
+                if(keys[node] <= keys[nodes[child]])
+                    break;
+                nodes[position] = nodes[child];
+                positions[nodes[position]] = position;
+                position = child;
+            }
+            nodes[position] = node;
+            positions[node] = position;
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package planetarium.solarsystem.error;
+
+public class OperationCancelledException extends Exception{
+    private static final long serialVersionUID = 1L;
+
+    public OperationCancelledException() {
+        super("Operation cancelled");
+    }
+
+}
@@ -0,0 +1,23 @@
+package planetarium.solarsystem.event;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event of the insertion of many satellites around the same celestial body.
+ */
+@Name("planetarium.BulkInsert")
+@Label("Bulk Insert")
+@Category({"Planetarium", "Solar System"})
+public class BulkInsertEvent extends Event {
+    @Label("Parent")
+    public String parent;
+
+    @Label("Requested")
+    public int requested;
+
+    @Label("Inserted")
+    public int inserted;
+}
@@ -0,0 +1,26 @@
+package planetarium.solarsystem.event;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event of the computation of the center of mass of a solar system.
+ */
+@Name("planetarium.CenterOfMass")
+@Label("Center Of Mass")
+@Category({"Planetarium", "Solar System"})
+public class CenterOfMassEvent extends Event {
+    @Label("Version")
+    public long version;
+
+    @Label("Bodies")
+    @Description("Bodies combined: the star and the subsystem of every planet")
+    public long bodies;
+
+    @Label("Cached")
+    @Description("Whether the result of the same version was reused")
+    public boolean cached;
+}
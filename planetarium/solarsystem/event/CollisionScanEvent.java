@@ -0,0 +1,30 @@
+package planetarium.solarsystem.event;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event of a collision scan of a solar system.
+ */
+@Name("planetarium.CollisionScan")
+@Label("Collision Scan")
+@Category({"Planetarium", "Solar System"})
+@Description("Scan of a snapshot of the solar system looking for possible collisions")
+public class CollisionScanEvent extends Event {
+    @Label("Version")
+    @Description("Version of the scanned snapshot")
+    public long version;
+
+    @Label("Planets")
+    public int planets;
+
+    @Label("Pairs Examined")
+    @Description("Pairs of bodies compared before the scan ended")
+    public long pairsExamined;
+
+    @Label("Collision Found")
+    public boolean collisionFound;
+}
@@ -0,0 +1,26 @@
+package planetarium.solarsystem.event;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event of the search of a celestial body given its identifier.
+ */
+@Name("planetarium.Lookup")
+@Label("Celestial Body Lookup")
+@Category({"Planetarium", "Solar System"})
+public class LookupEvent extends Event {
+    @Label("Identifier")
+    public String identifier;
+
+    @Label("Hit")
+    @Description("True if the celestial body was found")
+    public boolean hit;
+
+    @Label("Probe Length")
+    @Description("Celestial bodies compared with the identifier, at most, by the binary searches")
+    public long probeLength;
+}